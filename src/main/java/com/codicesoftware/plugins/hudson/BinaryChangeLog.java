@@ -0,0 +1,325 @@
+package com.codicesoftware.plugins.hudson;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Compact binary change log format, an alternative to the XML written by {@link ChangeSetWriter}.
+ * <p>
+ * The file holds the same data as the XML change log:
+ * <ul>
+ * <li>a header with the number of changesets and items, and the offsets of the sections below</li>
+ * <li>one record per changeset, with its items</li>
+ * <li>a string table shared by all the records: versions, users, comments, revision
+ * numbers, and item paths split into their directory prefix and name</li>
+ * <li>an index with the offset of each changeset record</li>
+ * </ul>
+ * The file is read into a buffer at once, and a single changeset, or just the counts
+ * of the header, can be read without decoding the rest of the file. The file is not
+ * memory-mapped, as a mapped file stays locked on Windows until the buffer is garbage
+ * collected, and builds could not be deleted.
+ */
+public class BinaryChangeLog {
+    /** "PCLB" */
+    private static final int MAGIC = 0x50434C42;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 36;
+    private static final int NO_STRING = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final ByteBuffer buffer;
+    private final int changesetCount;
+    private final long itemCount;
+    private final int stringCount;
+    private final int stringOffsetsStart;
+    private final int stringDataStart;
+    private final int indexStart;
+    private final String[] strings;
+
+    private BinaryChangeLog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary change log");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary change log version " + buffer.getInt(4));
+        }
+        changesetCount = buffer.getInt(8);
+        itemCount = buffer.getLong(12);
+        int stringTableStart = toInt(buffer.getLong(20));
+        indexStart = toInt(buffer.getLong(28));
+
+        stringCount = buffer.getInt(stringTableStart);
+        stringOffsetsStart = stringTableStart + 4;
+        stringDataStart = stringOffsetsStart + 4 * (stringCount + 1);
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Returns true if the file is a binary change log
+     */
+    public static boolean isBinary(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            return file.length() >= HEADER_SIZE && input.readInt() == MAGIC;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Reads a binary change log file into memory
+     * @param file the binary change log
+     * @return the change log, whose changesets are decoded as they are accessed
+     */
+    public static BinaryChangeLog open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(toInt(channel.size()));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Binary change log is shorter than expected");
+                }
+            }
+            return new BinaryChangeLog(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the list of change sets to the file in the binary format
+     * @param changeSets list of change sets
+     * @param changelogFile file to write change sets to
+     */
+    public static void write(List<ChangeSet> changeSets, File changelogFile) throws IOException {
+        Map<String, Integer> stringRefs = new HashMap<String, Integer>();
+        List<String> stringTable = new ArrayList<String>();
+        long[] index = new long[changeSets.size()];
+        long items = 0;
+        long stringTableOffset;
+        long indexOffset;
+
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(changelogFile), 64 * 1024));
+        DataOutputStream output = new DataOutputStream(counter);
+        try {
+            output.write(new byte[HEADER_SIZE]);
+
+            for (int i = 0; i < changeSets.size(); i++) {
+                ChangeSet changeSet = changeSets.get(i);
+                index[i] = counter.getByteCount();
+
+                output.writeInt(ref(changeSet.getVersion(), stringRefs, stringTable));
+                output.writeLong(changeSet.getDate() == null ? NO_DATE : changeSet.getDate().getTime());
+                output.writeInt(ref(changeSet.getUser(), stringRefs, stringTable));
+                output.writeInt(ref(changeSet.getComment(), stringRefs, stringTable));
+
+                List<ChangeSet.Item> changeSetItems = changeSet.getItems();
+                output.writeInt(changeSetItems.size());
+                for (ChangeSet.Item item : changeSetItems) {
+                    String path = item.getPath(changeSet.getWorkspaceDir());
+                    int nameStart = path.lastIndexOf('/') + 1;
+                    output.writeInt(ref(path.substring(0, nameStart), stringRefs, stringTable));
+                    output.writeInt(ref(path.substring(nameStart), stringRefs, stringTable));
+                    output.writeInt(ref(item.getRevno(), stringRefs, stringTable));
+                    output.writeInt(ref(item.getParentRevno(), stringRefs, stringTable));
+                }
+                items += changeSetItems.size();
+            }
+
+            stringTableOffset = counter.getByteCount();
+            List<byte[]> encodedStrings = new ArrayList<byte[]>(stringTable.size());
+            output.writeInt(stringTable.size());
+            int stringOffset = 0;
+            for (String string : stringTable) {
+                byte[] bytes = string.getBytes("UTF-8");
+                encodedStrings.add(bytes);
+                output.writeInt(stringOffset);
+                stringOffset += bytes.length;
+            }
+            output.writeInt(stringOffset);
+            for (byte[] bytes : encodedStrings) {
+                output.write(bytes);
+            }
+
+            indexOffset = counter.getByteCount();
+            for (long offset : index) {
+                output.writeLong(offset);
+            }
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+
+        RandomAccessFile header = new RandomAccessFile(changelogFile, "rw");
+        try {
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeInt(changeSets.size());
+            header.writeLong(items);
+            header.writeLong(stringTableOffset);
+            header.writeLong(indexOffset);
+        } finally {
+            header.close();
+        }
+    }
+
+    /**
+     * Converts an XML change log into the binary format
+     * @param xmlFile the existing XML change log, plain or gzip compressed
+     * @param binaryFile the binary change log to write
+     */
+    public static void convert(File xmlFile, File binaryFile) throws IOException {
+        write(new ChangeSetReader().readChangeSets(xmlFile), binaryFile);
+    }
+
+    public int getChangesetCount() {
+        return changesetCount;
+    }
+
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Decodes a single changeset. Its items are decoded when they are first accessed.
+     * @param index index of the changeset in the change log
+     */
+    public ChangeSet getChangeSet(int index) {
+        if (index < 0 || index >= changesetCount) {
+            throw new IndexOutOfBoundsException("Changeset " + index + " of " + changesetCount);
+        }
+        int position = toInt(buffer.getLong(indexStart + 8 * index));
+
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.setVersion(getString(buffer.getInt(position)));
+        long date = buffer.getLong(position + 4);
+        changeSet.setDate(date == NO_DATE ? null : new Date(date));
+        changeSet.setUser(getString(buffer.getInt(position + 12)));
+        changeSet.setComment(getString(buffer.getInt(position + 16)));
+        int items = buffer.getInt(position + 20);
+        if (items > 0) {
+            changeSet.setItemsLoader(new BufferItemsLoader(position + 24, items));
+        }
+        return changeSet;
+    }
+
+    /**
+     * Returns a read-only list view of the change log that decodes each changeset on access
+     */
+    public List<ChangeSet> getChangeSets() {
+        return new ChangeSetList();
+    }
+
+    private synchronized String getString(int ref) {
+        if (ref == NO_STRING) {
+            return null;
+        }
+        String string = strings[ref];
+        if (string == null) {
+            int start = buffer.getInt(stringOffsetsStart + 4 * ref);
+            int end = buffer.getInt(stringOffsetsStart + 4 * (ref + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer data = buffer.duplicate();
+            data.position(stringDataStart + start);
+            data.get(bytes);
+            try {
+                string = new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            strings[ref] = string;
+        }
+        return string;
+    }
+
+    private static int ref(String string, Map<String, Integer> stringRefs, List<String> stringTable) {
+        if (string == null) {
+            return NO_STRING;
+        }
+        Integer ref = stringRefs.get(string);
+        if (ref == null) {
+            ref = stringTable.size();
+            stringTable.add(string);
+            stringRefs.put(string, ref);
+        }
+        return ref;
+    }
+
+    private static int toInt(long offset) throws IllegalStateException {
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Binary change log is too large to be read");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * The changesets of the change log, decoded on access and kept once decoded.
+     */
+    public class ChangeSetList extends AbstractList<ChangeSet> implements RandomAccess {
+        private final ChangeSet[] changeSets = new ChangeSet[changesetCount];
+
+        @Override
+        public synchronized ChangeSet get(int index) {
+            if (changeSets[index] == null) {
+                changeSets[index] = getChangeSet(index);
+            }
+            return changeSets[index];
+        }
+
+        @Override
+        public int size() {
+            return changesetCount;
+        }
+
+        public long getItemCount() {
+            return itemCount;
+        }
+    }
+
+    /**
+     * Decodes the items of a changeset record.
+     */
+    private class BufferItemsLoader implements ChangeSet.ItemsLoader {
+        private final int position;
+        private final int count;
+
+        BufferItemsLoader(int position, int count) {
+            this.position = position;
+            this.count = count;
+        }
+
+        public List<ChangeSet.Item> load() {
+            List<ChangeSet.Item> items = new ArrayList<ChangeSet.Item>(count);
+            for (int i = 0; i < count; i++) {
+                int itemPosition = position + 16 * i;
+                String directory = getString(buffer.getInt(itemPosition));
+                String name = getString(buffer.getInt(itemPosition + 4));
+                items.add(new ChangeSet.Item(directory + name,
+                        getString(buffer.getInt(itemPosition + 8)),
+                        getString(buffer.getInt(itemPosition + 12))));
+            }
+            return items;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.codicesoftware.plugins.hudson;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line tool that converts the XML change logs of existing builds into the
+ * {@link BinaryChangeLog} format. Run it with the jars of the plugin and of Hudson
+ * in the class path:
+ * <pre>
+ * java com.codicesoftware.plugins.hudson.BinaryChangeLogConverter &lt;changelog.xml&gt; &lt;changelog.bin&gt;
+ * </pre>
+ */
+public class BinaryChangeLogConverter {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java " + BinaryChangeLogConverter.class.getName() + " <changelog.xml> <changelog.bin>");
+            System.exit(1);
+        }
+        File xmlFile = new File(args[0]);
+        File binaryFile = new File(args[1]);
+        BinaryChangeLog.convert(xmlFile, binaryFile);
+
+        BinaryChangeLog changeLog = BinaryChangeLog.open(binaryFile);
+        System.out.println(String.format("Converted %d changesets and %d items: %d bytes of XML, %d bytes of binary",
+                changeLog.getChangesetCount(), changeLog.getItemCount(), xmlFile.length(), binaryFile.length()));
+    }
+}
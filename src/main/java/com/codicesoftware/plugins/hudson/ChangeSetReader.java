@@ -2,12 +2,25 @@ package com.codicesoftware.plugins.hudson;
 
 import com.codicesoftware.plugins.hudson.model.ChangeLogSet;
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import com.codicesoftware.plugins.hudson.util.XmlScanner;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.digester.Digester;
 import org.apache.commons.io.IOUtils;
@@ -19,23 +32,69 @@ import hudson.util.Digester2;
 
 /**
  * Plastic SCM change log reader, based on tfs version.
+ * Gzip compressed and {@link BinaryChangeLog binary} change logs are detected and read transparently.
+ * XML change logs are read in the charset named by their root element, or in the platform
+ * charset for the change logs written by older versions.
  * 
  * @author Erik Ramfelt
  * @author Dick Porter
  */ 
 public class ChangeSetReader extends ChangeLogParser {
 
+    /** Attribute of the root element with the charset of the change log */
+    static final String CHARSET_ATTRIBUTE = "charset";
+
+    private static final int HEADER_SIZE = 512;
+    private static final Pattern charsetRegex = Pattern.compile("<changelog\\s+" + CHARSET_ATTRIBUTE + "=\"([^\"]+)\"");
+
+    private static final Logger logger = Logger.getLogger(ChangeSetReader.class.getName());
+
+    /**
+     * Reads the change log file. The changeset headers are read right away, but the items
+     * of each changeset are only read from the file when they are first needed.
+     */
     @Override
     public ChangeLogSet parse(AbstractBuild build, File changelogFile) throws IOException, SAXException {
-        FileReader reader = new FileReader(changelogFile);
+        return new ChangeLogSet(build, readChangeSets(changelogFile));
+    }
+
+    /**
+     * Reads the changesets of a change log file in any of the supported formats.
+     * Binary change logs are decoded as the changesets are accessed.
+     */
+    List<ChangeSet> readChangeSets(File changelogFile) throws IOException {
+        if (BinaryChangeLog.isBinary(changelogFile)) {
+            return BinaryChangeLog.open(changelogFile).getChangeSets();
+        }
+
+        Charset charset = getCharset(changelogFile);
+        if (XmlScanner.isSupported(charset)) {
+            try {
+                return parseHeaders(changelogFile, charset);
+            } catch (XmlScanner.FormatException e) {
+                logger.log(Level.FINE, "Falling back to reading " + changelogFile + " with digester", e);
+            } catch (ParseException e) {
+                logger.log(Level.FINE, "Falling back to reading " + changelogFile + " with digester", e);
+            }
+        }
+
+        Reader reader = new InputStreamReader(openChangelog(changelogFile), charset);
         try {
-            return parse(build, reader);
+            return parseChangeSets(reader);
+        } catch (SAXException e) {
+            IOException exception = new IOException("Failed to parse " + changelogFile + ": " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
         } finally {
             IOUtils.closeQuietly(reader);
         }
     }
 
     public ChangeLogSet parse(AbstractBuild<?,?> build, Reader reader) throws IOException, SAXException {
+        return new ChangeLogSet(build, parseChangeSets(reader));
+    }
+
+    private List<ChangeSet> parseChangeSets(Reader reader) throws IOException, SAXException {
         List<ChangeSet> changesetList = new ArrayList<ChangeSet>();
         Digester digester = new Digester2();
         digester.push(changesetList);
@@ -54,6 +113,181 @@ public class ChangeSetReader extends ChangeLogParser {
         
         digester.parse(reader);
 
-        return new ChangeLogSet(build, changesetList);
+        return changesetList;
+    }
+
+    /**
+     * @return the charset named by the root element of the change log; the platform
+     * charset if it names none, as older versions wrote the change logs in it
+     */
+    static Charset getCharset(File changelogFile) throws IOException {
+        InputStream input = openChangelog(changelogFile);
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            int length = 0;
+            int read;
+            while (length < header.length && (read = input.read(header, length, header.length - length)) != -1) {
+                length += read;
+            }
+            Matcher matcher = charsetRegex.matcher(new String(header, 0, length, "ISO-8859-1"));
+            if (matcher.find()) {
+                try {
+                    return Charset.forName(matcher.group(1));
+                } catch (IllegalCharsetNameException e) {
+                    throw new XmlScanner.FormatException("Unknown charset " + matcher.group(1));
+                } catch (UnsupportedCharsetException e) {
+                    throw new XmlScanner.FormatException("Unknown charset " + matcher.group(1));
+                }
+            }
+            return Charset.defaultCharset();
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Reads the changesets. The items of uncompressed change logs are read later on; those
+     * of compressed ones are read right away, as they could only be reached again by
+     * decompressing the file from its start.
+     */
+    private List<ChangeSet> parseHeaders(File changelogFile, Charset charset) throws IOException, ParseException {
+        List<ChangeSet> changesetList = new ArrayList<ChangeSet>();
+        boolean lazyItems = !isCompressed(changelogFile);
+        InputStream input = openChangelog(changelogFile);
+        try {
+            XmlScanner scanner = new XmlScanner(input, 0, charset);
+            ChangeSet changeset = null;
+            while (scanner.nextTag()) {
+                if (scanner.isStartTag("changeset")) {
+                    changeset = new ChangeSet();
+                    String version = scanner.getAttribute("version");
+                    if (version != null) {
+                        changeset.setVersion(version);
+                    }
+                } else if (changeset == null) {
+                    continue;
+                } else if (scanner.isStartTag("date")) {
+                    changeset.setDateStr(scanner.readText());
+                } else if (scanner.isStartTag("user")) {
+                    changeset.setUser(scanner.readText());
+                } else if (scanner.isStartTag("comment")) {
+                    changeset.setComment(scanner.readText());
+                } else if (scanner.isStartTag("items") && !scanner.isEmptyTag()) {
+                    if (lazyItems) {
+                        changeset.setItemsLoader(new FileItemsLoader(changelogFile, scanner.getPosition(), charset));
+                        scanner.skipTo("items");
+                    } else {
+                        for (ChangeSet.Item item : readItems(scanner)) {
+                            changeset.add(item);
+                        }
+                    }
+                } else if (scanner.isEndTag("changeset")) {
+                    changesetList.add(changeset);
+                    changeset = null;
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        return changesetList;
+    }
+
+    /**
+     * Reads the items up to the end of the &lt;items&gt; element
+     */
+    private static List<ChangeSet.Item> readItems(XmlScanner scanner) throws IOException {
+        List<ChangeSet.Item> items = new ArrayList<ChangeSet.Item>();
+        while (true) {
+            if (!scanner.nextTag()) {
+                throw new XmlScanner.FormatException("Missing </items>");
+            }
+            if (scanner.isEndTag("items")) {
+                return items;
+            }
+            if (scanner.isStartTag("item")) {
+                ChangeSet.Item item = new ChangeSet.Item();
+                String revno = scanner.getAttribute("revno");
+                if (revno != null) {
+                    item.setRevno(revno);
+                }
+                String parentRevno = scanner.getAttribute("parentRevno");
+                if (parentRevno != null) {
+                    item.setParentRevno(parentRevno);
+                }
+                if (!scanner.isEmptyTag()) {
+                    item.setPath(scanner.readText());
+                }
+                items.add(item);
+            }
+        }
+    }
+
+    /**
+     * @return true if the change log file was written gzip compressed
+     */
+    static boolean isCompressed(File changelogFile) throws IOException {
+        InputStream input = new FileInputStream(changelogFile);
+        try {
+            int magic = input.read() | (input.read() << 8);
+            return magic == GZIPInputStream.GZIP_MAGIC;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Opens the change log file for reading, decompressing it if it was written gzip compressed
+     * @return a buffered stream with the uncompressed content
+     */
+    static InputStream openChangelog(File changelogFile) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(changelogFile));
+        try {
+            input.mark(2);
+            int magic = input.read() | (input.read() << 8);
+            input.reset();
+            if (magic == GZIPInputStream.GZIP_MAGIC) {
+                input = new BufferedInputStream(new GZIPInputStream(input));
+            }
+            return input;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(input);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the items of a changeset from an uncompressed change log, starting at the offset right after its &lt;items&gt; tag.
+     */
+    private static class FileItemsLoader implements ChangeSet.ItemsLoader {
+        private final File changelogFile;
+        private final long offset;
+        private final Charset charset;
+
+        FileItemsLoader(File changelogFile, long offset, Charset charset) {
+            this.changelogFile = changelogFile;
+            this.offset = offset;
+            this.charset = charset;
+        }
+
+        public List<ChangeSet.Item> load() throws IOException {
+            InputStream input = new BufferedInputStream(new FileInputStream(changelogFile));
+            try {
+                skip(input, offset);
+                return readItems(new XmlScanner(input, offset, charset));
+            } finally {
+                IOUtils.closeQuietly(input);
+            }
+        }
+
+        private static void skip(InputStream input, long count) throws IOException {
+            long remaining = count;
+            while (remaining > 0) {
+                long skipped = input.skip(remaining);
+                if (skipped <= 0) {
+                    throw new XmlScanner.FormatException("Change log is shorter than expected");
+                }
+                remaining -= skipped;
+            }
+        }
     }
 }
@@ -2,22 +2,55 @@ package com.codicesoftware.plugins.hudson;
 
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
 import com.codicesoftware.plugins.hudson.util.DateUtil;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
 
 /**
  * Plastic SCM change log writer, based on tfs version.
+ * <p>
+ * The change log is written as UTF-8 encoded XML, optionally gzip compressed. The root
+ * element names the charset, as change logs written by older versions without it are
+ * in the platform charset.
+ * {@link ChangeSetReader} detects compressed change logs by themselves, as well as
+ * change logs written in the {@link BinaryChangeLog} format.
  * 
  * @author Erik Ramfelt
  * @author Dick Porter
  */
 public class ChangeSetWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean compress;
+    private final boolean binary;
+
+    public ChangeSetWriter() {
+        this(false);
+    }
+
+    /**
+     * @param compress true to write gzip compressed change log files
+     */
+    public ChangeSetWriter(boolean compress) {
+        this(compress, false);
+    }
+
+    /**
+     * @param compress true to write gzip compressed change log files
+     * @param binary true to write change log files in the binary format, which is never compressed
+     */
+    public ChangeSetWriter(boolean compress, boolean binary) {
+        this.compress = compress;
+        this.binary = binary;
+    }
 
     /**
      * Writes the list of change sets to the file
@@ -25,11 +58,21 @@ public class ChangeSetWriter {
      * @param changelogFile file to write change sets to
      */
     public void write(List<ChangeSet> changeSets, File changelogFile) throws IOException {
-        FileWriter writer = new FileWriter(changelogFile);
+        if (binary) {
+            BinaryChangeLog.write(changeSets, changelogFile);
+            return;
+        }
+
+        OutputStream output = new FileOutputStream(changelogFile);
         try {
+            if (compress) {
+                output = new GZIPOutputStream(output, BUFFER_SIZE);
+            }
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"), BUFFER_SIZE);
             write(changeSets, writer);
+            writer.close();
         } finally {
-            IOUtils.closeQuietly(writer);
+            IOUtils.closeQuietly(output);
         }
     }
 
@@ -38,72 +81,103 @@ public class ChangeSetWriter {
      * @param changeSets list of change sets
      * @param output output writer
      */    
-    public void write(List<ChangeSet> changeSets, Writer output) {
-        PrintWriter writer = new PrintWriter(output);
-        
-        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        writer.println("<changelog>");
+    public void write(List<ChangeSet> changeSets, Writer output) throws IOException {
+        output.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        output.write("<changelog " + ChangeSetReader.CHARSET_ATTRIBUTE + "=\"UTF-8\">\n");
         
         for (ChangeSet changeSet : changeSets) {
-            writer.println(String.format("\t<changeset version=\"%s\">", changeSet.getVersion()));
-            write(changeSet, writer);
-            writer.println("\t</changeset>");
+            output.write("\t<changeset version=\"");
+            writeEscaped(changeSet.getVersion(), output);
+            output.write("\">\n");
+            write(changeSet, output);
+            output.write("\t</changeset>\n");
         }
         
-        writer.println("</changelog>");
-        writer.flush();
+        output.write("</changelog>\n");
+        output.flush();
     }
 
-    private void write(ChangeSet changeSet, PrintWriter writer) {
-        writer.println(String.format("\t\t<date>%s</date>", DateUtil.PLASTICSCM_DATETIME_FORMATTER.get().format(changeSet.getDate())));
-        writer.println(String.format("\t\t<user>%s</user>", escapeForXml(changeSet.getUser())));
-        writer.println(String.format("\t\t<comment>%s</comment>", escapeForXml(changeSet.getComment())));
-        if (changeSet.getItems().size() > 0) {
-            writer.println("\t\t<items>");
-            for (ChangeSet.Item item : changeSet.getItems()) {
-                writer.println(String.format("\t\t\t<item revno=\"%s\" parentRevno=\"%s\">%s</item>",
-                        escapeForXml(item.getRevno()), escapeForXml(item.getParentRevno()),
-                        escapeForXml(item.getPath(changeSet.getWorkspaceDir()))));
+    private void write(ChangeSet changeSet, Writer output) throws IOException {
+        output.write("\t\t<date>");
+        output.write(DateUtil.PLASTICSCM_DATETIME.format(changeSet.getDate()));
+        output.write("</date>\n");
+
+        output.write("\t\t<user>");
+        writeEscaped(changeSet.getUser(), output);
+        output.write("</user>\n");
+
+        output.write("\t\t<comment>");
+        writeEscaped(changeSet.getComment(), output);
+        output.write("</comment>\n");
+
+        List<ChangeSet.Item> items = changeSet.getItems();
+        if (items.size() > 0) {
+            String workspaceDir = changeSet.getWorkspaceDir();
+            output.write("\t\t<items>\n");
+            for (ChangeSet.Item item : items) {
+                output.write("\t\t\t<item revno=\"");
+                writeEscaped(item.getRevno(), output);
+                output.write("\" parentRevno=\"");
+                writeEscaped(item.getParentRevno(), output);
+                output.write("\">");
+                writeEscapedPath(item.getPath(), workspaceDir, output);
+                output.write("</item>\n");
             }
-            writer.println("\t\t</items>");
+            output.write("\t\t</items>\n");
         }
     }
 
+    /**
+     * Writes the path relative to the workspace directory, the same as
+     * {@link ChangeSet.Item#getPath(String)} without creating the substring.
+     */
+    private void writeEscapedPath(String path, String workspaceDir, Writer output) throws IOException {
+        if (workspaceDir != null && path.startsWith(workspaceDir)) {
+            writeEscaped(path, workspaceDir.length(), path.length(), output);
+        } else {
+            writeEscaped(path, 0, path.length(), output);
+        }
+    }
+
+    private void writeEscaped(String string, Writer output) throws IOException {
+        if (string == null) {
+            output.write("null");
+            return;
+        }
+        writeEscaped(string, 0, string.length(), output);
+    }
+
     /**
      * 
-     * Converts the input in the way that it can be written to the XML.
+     * Writes the input in the way that it can be written to the XML.
      * Special characters are converted to XML understandable way.
+     * Runs of plain characters are written straight from the string.
      * 
-     * @param object The object to be escaped.
-     * @return Escaped string that can be written to XML.
+     * @param string The string to be escaped.
+     * @param start index of the first character to write
+     * @param end index after the last character to write
+     * @param output The writer receiving the escaped string.
      */
-    private String escapeForXml(Object object)
+    private void writeEscaped(String string, int start, int end, Writer output) throws IOException
     {
-        if(object == null)
-        {
-            return null;
-        }
-
-        //Loop through and replace the special chars.
-        String string = object.toString();
-        int size = string.length();
-        char ch;
-        StringBuilder escapedString = new StringBuilder(size);
-        for(int index = 0;index < size;index ++)
+        int plainStart = start;
+        for(int index = start;index < end;index ++)
         {
             //Convert special chars.
-            ch = string.charAt(index);
-            switch(ch)
+            String escaped;
+            switch(string.charAt(index))
             {
-                case '&'  : escapedString.append("&amp;");  break;
-                case '<'  : escapedString.append("&lt;");   break;
-                case '>'  : escapedString.append("&gt;");   break;
-                case '\'' : escapedString.append("&apos;"); break;
-                case '\"' : escapedString.append("&quot;");break;
-                default:    escapedString.append(ch);
+                case '&'  : escaped = "&amp;";  break;
+                case '<'  : escaped = "&lt;";   break;
+                case '>'  : escaped = "&gt;";   break;
+                case '\'' : escaped = "&apos;"; break;
+                case '\"' : escaped = "&quot;"; break;
+                default:    continue;
             }
+            output.write(string, plainStart, index - plainStart);
+            output.write(escaped);
+            plainStart = index + 1;
         }
-
-        return escapedString.toString();
+        output.write(string, plainStart, end - plainStart);
     }
 }
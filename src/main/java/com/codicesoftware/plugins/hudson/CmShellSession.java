@@ -0,0 +1,357 @@
+package com.codicesoftware.plugins.hudson;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.util.DaemonThreadFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Long-lived "cm shell" process that runs every command of a build through
+ * a single client instance, instead of spawning one cm process per command.
+ * <p>
+ * Commands are written to the shell's standard input, one per line. The shell
+ * writes the command output to its standard output, followed by a line with
+ * the command result code ("CommandResult 0").
+ * <p>
+ * As a command may print a line that looks like a result line (a changeset
+ * comment, for instance), every command is followed by a "version" command.
+ * The end of a command is a result line, followed by the version line recorded
+ * when the session started, followed by the result line of the version command.
+ * <p>
+ * If the shell writes nothing for longer than the timeout, the session is
+ * killed and marked as broken.
+ */
+public class CmShellSession {
+    private static final Pattern resultRegex = Pattern.compile("^CommandResult\\s+(-?\\d+)\\s*$");
+    private static final String MASK = "********";
+    private static final String SENTINEL_COMMAND = "version";
+
+    /** Seconds the shell may stay silent before the session is killed */
+    private static final long DEFAULT_TIMEOUT = Long.getLong(CmShellSession.class.getName() + ".timeout", 600) * 1000;
+
+    private static final ScheduledExecutorService watchdogExecutor =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private final TaskListener listener;
+    private final Proc proc;
+    private final Writer commandWriter;
+    private final OutputStream shellOutput;
+    private final InputStream resultStream;
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+    private final long timeout;
+    private String versionLine;
+    private boolean broken;
+    private volatile long lastActivity;
+    private volatile boolean timedOut;
+
+    private static final Logger logger = Logger.getLogger(CmShellSession.class.getName());
+
+    private CmShellSession(TaskListener listener, Proc proc, OutputStream commandStream, OutputStream shellOutput,
+            InputStream resultStream, long timeout) {
+        this.listener = listener;
+        this.proc = proc;
+        this.commandWriter = new OutputStreamWriter(commandStream);
+        this.shellOutput = shellOutput;
+        this.resultStream = new BufferedInputStream(resultStream);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts a new "cm shell" process in the workspace
+     * @param executable the cm executable
+     * @param launcher launcher used to start the process
+     * @param listener listener of the build
+     * @param workspace working directory of the shell
+     * @return the started session
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static CmShellSession start(String executable, Launcher launcher, TaskListener listener,
+            FilePath workspace) throws IOException, InterruptedException {
+        return start(executable, launcher, listener, workspace, DEFAULT_TIMEOUT);
+    }
+
+    static CmShellSession start(String executable, Launcher launcher, TaskListener listener,
+            FilePath workspace, long timeout) throws IOException, InterruptedException {
+        FastPipedInputStream shellInput = new FastPipedInputStream();
+        FastPipedOutputStream commandStream = new FastPipedOutputStream(shellInput);
+        FastPipedInputStream resultStream = new FastPipedInputStream();
+        final FastPipedOutputStream shellOutput = new FastPipedOutputStream(resultStream);
+
+        final Proc proc = launcher.launch().cmds(executable, "shell")
+                .stdin(shellInput).stdout(shellOutput).pwd(workspace).start();
+
+        // Signal the end of the output when the shell goes away, so a reader never waits forever
+        Thread watcher = new Thread("cm shell watcher") {
+            @Override
+            public void run() {
+                try {
+                    proc.join();
+                } catch (Exception e) {
+                    logger.log(Level.FINE, "cm shell terminated abnormally", e);
+                } finally {
+                    try {
+                        shellOutput.close();
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Could not close the cm shell output", e);
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+
+        CmShellSession session = new CmShellSession(listener, proc, commandStream, shellOutput, resultStream, timeout);
+        try {
+            session.readVersionLine();
+        } catch (IOException e) {
+            session.close();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Runs the sentinel command once, to learn the line it prints
+     */
+    private synchronized void readVersionLine() throws IOException {
+        ScheduledFuture<?> watchdog = startWatchdog();
+        try {
+            commandWriter.write(SENTINEL_COMMAND + '\n');
+            commandWriter.flush();
+            while (readLine()) {
+                String line = lineBuffer.toString();
+                if (resultRegex.matcher(line).matches()) {
+                    if (versionLine == null) {
+                        throw new IOException("The cm shell printed no version");
+                    }
+                    return;
+                }
+                if (line.trim().length() > 0) {
+                    versionLine = line;
+                }
+            }
+            throw new IOException(getEndMessage());
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    /**
+     * Returns true if the session can no longer be used
+     */
+    public synchronized boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Returns true if the session was killed because the shell stopped responding
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Runs one command in the shell, writing its output to the stream
+     * @param arguments arguments of the command, without the executable
+     * @param masks which of the arguments should be masked from the console; may be null
+     * @param output stream receiving the command output
+     * @return the result code of the command
+     * @throws ShellException if the session failed before the command produced any output,
+     *         so the command can safely be run again outside the shell
+     * @throws IOException if the session failed while the command output was being read
+     */
+    public synchronized int execute(String[] arguments, boolean[] masks, OutputStream output)
+            throws IOException {
+        if (broken) {
+            throw new ShellException("The cm shell session is no longer usable");
+        }
+
+        listener.getLogger().println("$ cm shell> " + toCommandLine(arguments, masks, true));
+
+        boolean outputStarted = false;
+        ScheduledFuture<?> watchdog = startWatchdog();
+        try {
+            commandWriter.write(toCommandLine(arguments, null, false));
+            commandWriter.write('\n');
+            commandWriter.write(SENTINEL_COMMAND + '\n');
+            commandWriter.flush();
+
+            // A result line only ends the command when the sentinel output follows it
+            String pendingResult = null;
+            boolean pendingVersion = false;
+            while (true) {
+                if (!readLine()) {
+                    throw new IOException(getEndMessage());
+                }
+                String line = lineBuffer.toString();
+                Matcher matcher = resultRegex.matcher(line);
+                if (pendingVersion) {
+                    if (matcher.matches()) {
+                        return Integer.parseInt(resultRegex.matcher(pendingResult).replaceFirst("$1"));
+                    }
+                    writeLine(pendingResult, output);
+                    writeLine(versionLine, output);
+                    outputStarted = true;
+                    pendingResult = null;
+                    pendingVersion = false;
+                } else if (pendingResult != null) {
+                    if (line.equals(versionLine)) {
+                        pendingVersion = true;
+                        continue;
+                    }
+                    writeLine(pendingResult, output);
+                    outputStarted = true;
+                    pendingResult = null;
+                }
+                if (matcher.matches()) {
+                    pendingResult = line;
+                } else {
+                    outputStarted = true;
+                    lineBuffer.write('\n');
+                    lineBuffer.writeTo(output);
+                }
+            }
+        } catch (IOException e) {
+            broken = true;
+            if (outputStarted) {
+                throw e;
+            }
+            ShellException exception = new ShellException("The cm shell session failed: " + e.getMessage());
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    /**
+     * Kills the shell if it writes nothing for longer than the timeout, which ends
+     * the output so that a blocked reader returns
+     */
+    private ScheduledFuture<?> startWatchdog() {
+        lastActivity = System.currentTimeMillis();
+        long period = Math.max(timeout / 10, 10);
+        return watchdogExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if (timedOut || System.currentTimeMillis() - lastActivity <= timeout) {
+                    return;
+                }
+                timedOut = true;
+                logger.warning("The cm shell wrote nothing in " + timeout + " ms, killing it");
+                try {
+                    shellOutput.close();
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Could not close the cm shell output", e);
+                }
+                try {
+                    proc.kill();
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Could not terminate the cm shell", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private String getEndMessage() {
+        if (timedOut) {
+            return "The cm shell stopped responding for " + timeout + " ms";
+        }
+        return "The cm shell ended unexpectedly";
+    }
+
+    private static void writeLine(String line, OutputStream output) throws IOException {
+        output.write(line.getBytes());
+        output.write('\n');
+    }
+
+    /**
+     * Ends the shell process
+     */
+    public synchronized void close() {
+        broken = true;
+        try {
+            commandWriter.write("exit\n");
+            commandWriter.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not send exit to the cm shell", e);
+        }
+        try {
+            proc.kill();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Could not terminate the cm shell", e);
+        }
+    }
+
+    /**
+     * Reads the next line of output, without the line terminator, into the line buffer
+     * @return false if the end of the stream was reached
+     */
+    private boolean readLine() throws IOException {
+        lineBuffer.reset();
+        int b = resultStream.read();
+        if (b == -1) {
+            return false;
+        }
+        lastActivity = System.currentTimeMillis();
+        while (b != -1 && b != '\n') {
+            if (b != '\r') {
+                lineBuffer.write(b);
+            }
+            b = resultStream.read();
+            lastActivity = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private static String toCommandLine(String[] arguments, boolean[] masks, boolean forConsole) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            if (forConsole && masks != null && i < masks.length && masks[i]) {
+                builder.append(MASK);
+            } else {
+                builder.append(quote(arguments[i]));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String quote(String argument) {
+        if (argument.length() > 0 && !argument.matches(".*[\\s\"].*")) {
+            return argument;
+        }
+        return '"' + argument.replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Thrown when the session failed before the command produced any output.
+     */
+    public static class ShellException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ShellException(String message) {
+            super(message);
+        }
+    }
+}
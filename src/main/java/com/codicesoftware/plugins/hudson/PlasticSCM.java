@@ -1,14 +1,23 @@
 package com.codicesoftware.plugins.hudson;
 
 import com.codicesoftware.plugins.hudson.actions.CheckoutAction;
+import com.codicesoftware.plugins.hudson.actions.GetHistoryCallable;
 import com.codicesoftware.plugins.hudson.actions.RemoveWorkspaceAction;
+import com.codicesoftware.plugins.hudson.commands.GetBranchHeadCommand;
+import com.codicesoftware.plugins.hudson.model.BranchHead;
+import com.codicesoftware.plugins.hudson.model.BranchHeadCache;
+import com.codicesoftware.plugins.hudson.model.BranchHeadsAction;
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import com.codicesoftware.plugins.hudson.model.CommandMetricsAction;
 import com.codicesoftware.plugins.hudson.model.Server;
 import com.codicesoftware.plugins.hudson.model.Workspace;
 import com.codicesoftware.plugins.hudson.model.WorkspaceConfiguration;
 import com.codicesoftware.plugins.hudson.util.BuildVariableResolver;
 import com.codicesoftware.plugins.hudson.util.BuildWorkspaceConfigurationRetriever;
 import com.codicesoftware.plugins.hudson.util.BuildWorkspaceConfigurationRetriever.BuildWorkspaceConfiguration;
+import com.codicesoftware.plugins.hudson.util.CommandLimiter;
+import com.codicesoftware.plugins.hudson.util.PathFilter;
+import com.codicesoftware.plugins.hudson.util.SelectorParser;
 import hudson.*;
 import hudson.model.*;
 import hudson.scm.ChangeLogParser;
@@ -40,19 +49,28 @@ public class PlasticSCM extends SCM {
     private final String selector;
     private final String workfolder;
     private final boolean useUpdate;
+    private final String revisionsParallelism;
+    private final String includePaths;
+    private final String excludePaths;
+    private final boolean filterChangelog;
 
     private transient String normalizedWorkspace;
 
     private static final Logger logger = Logger.getLogger(PlasticSCM.class.getName());
 
     @DataBoundConstructor
-    public PlasticSCM(String workspaceName, String selector, String workfolder, boolean useUpdate) {
+    public PlasticSCM(String workspaceName, String selector, String workfolder, boolean useUpdate,
+            String revisionsParallelism, String includePaths, String excludePaths, boolean filterChangelog) {
         this.workspaceName = (Util.fixEmptyAndTrim(workspaceName) == null ? "Jenkins-${JOB_NAME}-${NODE_NAME}" : workspaceName);
         
         this.selector = selector;
         this.workfolder = workfolder;
         
         this.useUpdate = useUpdate;
+        this.revisionsParallelism = Util.fixEmptyAndTrim(revisionsParallelism);
+        this.includePaths = Util.fixEmptyAndTrim(includePaths);
+        this.excludePaths = Util.fixEmptyAndTrim(excludePaths);
+        this.filterChangelog = filterChangelog;
     }
 
     /**
@@ -76,6 +94,46 @@ public class PlasticSCM extends SCM {
         return useUpdate;
     }
 
+    /**
+     * @return the number of parallel revisions queries set for this job; null to use the global setting
+     */
+    public String getRevisionsParallelism() {
+        return revisionsParallelism;
+    }
+
+    private int getEffectiveRevisionsParallelism() {
+        Integer parallelism = DescriptorImpl.parseInteger(revisionsParallelism);
+        if (parallelism != null && parallelism > 0) {
+            return parallelism;
+        }
+        return getDescriptor().getRevisionsParallelism();
+    }
+
+    /**
+     * @return the paths of the workspace checked out, one per line; null for all of them
+     */
+    public String getIncludePaths() {
+        return includePaths;
+    }
+
+    /**
+     * @return the paths of the workspace not checked out, one per line; null for none
+     */
+    public String getExcludePaths() {
+        return excludePaths;
+    }
+
+    /**
+     * @return true to leave the changes out of the checked out paths out of the changelog
+     */
+    public boolean isFilterChangelog() {
+        return filterChangelog;
+    }
+
+    private PathFilter getPathFilter() {
+        return PathFilter.parse(includePaths, excludePaths);
+    }
+
     @Override
     public ChangeLogParser createChangeLogParser() {
         return new ChangeSetReader();
@@ -85,7 +143,7 @@ public class PlasticSCM extends SCM {
     {
         return new WorkspaceConfiguration(
                 normalizeAndEvaluateWorkspaceNameStringForBuild(build),
-                selector,
+                getPathFilter().applyTo(selector),
                 workfolder
         );
     }
@@ -94,7 +152,7 @@ public class PlasticSCM extends SCM {
     {
         return new WorkspaceConfiguration(
                 normalizeAndEvaluateWorkspaceNameStringForJob(job),
-                selector,
+                getPathFilter().applyTo(selector),
                 workfolder
         );
     }
@@ -145,7 +203,19 @@ public class PlasticSCM extends SCM {
     @Override
     public boolean checkout(AbstractBuild build, Launcher launcher, FilePath workspaceFilePath,
             BuildListener listener, File changelogFile) throws IOException, InterruptedException {
-        Server server = new Server(new PlasticTool(getDescriptor().getCmExecutable(), launcher, listener, workspaceFilePath));
+        PlasticTool tool = createPlasticTool(launcher, listener, workspaceFilePath, CommandLimiter.Priority.BUILD);
+        try {
+            return checkout(build, new Server(tool), workspaceFilePath, listener, changelogFile);
+        } finally {
+            tool.close();
+            if (!tool.getMetrics().isEmpty()) {
+                build.addAction(new CommandMetricsAction(tool.getMetrics()));
+            }
+        }
+    }
+
+    private boolean checkout(AbstractBuild build, Server server, FilePath workspaceFilePath,
+            BuildListener listener, File changelogFile) throws IOException, InterruptedException {
         WorkspaceConfiguration workspaceConfiguration = getWorkspaceConfigurationForBuild(build);
 
         if (build.getPreviousBuild() != null) {
@@ -162,10 +232,23 @@ public class PlasticSCM extends SCM {
         }
 
         build.addAction(workspaceConfiguration);
-        CheckoutAction action = new CheckoutAction(workspaceConfiguration.getWorkspaceName(), workspaceConfiguration.getSelector(), workspaceConfiguration.getWorkfolder(), isUseUpdate());
+        CheckoutAction action = new CheckoutAction(workspaceConfiguration.getWorkspaceName(), workspaceConfiguration.getSelector(), workspaceConfiguration.getWorkfolder(), isUseUpdate(),
+                getDescriptor().getRevisionsChunkSize(), getEffectiveRevisionsParallelism());
+        // The heads are what the history of the next build starts from, and what polling compares with
+        action.setRecordBranchHeads(build.getPreviousBuild() != null ? build.getPreviousBuild().getAction(BranchHeadsAction.class) : null);
+        action.setMaxHistoryChangesets(getDescriptor().getMaxHistoryChangesets());
+        action.setMountsParallelism(getDescriptor().getMountsParallelism());
+        PathFilter pathFilter = getPathFilter();
+        action.setCloakedRules(pathFilter.getExcludes().isEmpty() ? null : pathFilter.getCloakedRules());
         try {
             List<ChangeSet> list = action.checkout(server, workspaceFilePath, (build.getPreviousBuild() != null? build.getPreviousBuild().getTimestamp(): null), build.getTimestamp());
-            ChangeSetWriter writer = new ChangeSetWriter();
+            if (action.getBranchHeads() != null) {
+                build.addAction(new BranchHeadsAction(action.getBranchHeads()));
+            }
+            if (filterChangelog && !pathFilter.isEmpty()) {
+                list = pathFilter.filter(list);
+            }
+            ChangeSetWriter writer = new ChangeSetWriter(getDescriptor().isCompressChangelog(), getDescriptor().isBinaryChangelog());
             writer.write(list, changelogFile);
         } catch (ParseException e) {
             listener.fatalError(e.getMessage());
@@ -180,19 +263,139 @@ public class PlasticSCM extends SCM {
 
         if (lastRun == null) {
             return true;
+        }
+        List<SelectorParser.Rule> selectorRules = getSelectorRulesForPolling();
+        if (selectorRules != null) {
+            return pollWithoutWorkspace(lastRun, selectorRules, launcher, listener);
         } else {
             WorkspaceConfiguration workspaceConfiguration = getWorkspaceConfigurationForJob(lastRun.getParent());
-            Server server = new Server(new PlasticTool(getDescriptor().getCmExecutable(), launcher, listener, workspaceFilePath));
-            Workspace workspace = server.getWorkspaces().getWorkspace(workspaceConfiguration.getWorkspaceName());
+            PlasticTool tool = createPlasticTool(launcher, listener, workspaceFilePath, CommandLimiter.Priority.POLL);
             try {
-                return (workspace.getBriefHistory(lastRun.getTimestamp(), Calendar.getInstance()).size() > 0);
+                Server server = new Server(tool);
+                BranchHeadsAction branchHeads = lastRun.getAction(BranchHeadsAction.class);
+                if (getDescriptor().isPollByBranchHead() && branchHeads != null && !branchHeads.isEmpty()) {
+                    return hasNewerChangesets(server, branchHeads, listener);
+                }
+                Workspace workspace = server.getWorkspaces().getWorkspace(workspaceConfiguration.getWorkspaceName());
+                if (workspace == null) {
+                    listener.getLogger().println("Workspace " + workspaceConfiguration.getWorkspaceName()
+                            + " does not exist; a build is needed to create it.");
+                    return true;
+                }
+                GetHistoryCallable history = new GetHistoryCallable(tool, workspace, lastRun.getTimestamp(),
+                        Calendar.getInstance(), false, 0, 1);
+                // A single changeset is enough to know there are changes; reaching it is not worth a message
+                history.setMaxChangesets(1, false);
+                history.setMountsParallelism(getDescriptor().getMountsParallelism());
+                return (history.getHistory(server, workspaceFilePath).size() > 0);
             } catch (ParseException e) {
                 listener.fatalError(e.getMessage());
                 throw new AbortException();
+            } finally {
+                tool.close();
             }
         }
     }
 
+    @Override
+    public boolean requiresWorkspaceForPolling() {
+        return getSelectorRulesForPolling() == null;
+    }
+
+    /**
+     * @return the rules of the selector when polling without a workspace; null to poll using the workspace
+     */
+    private List<SelectorParser.Rule> getSelectorRulesForPolling() {
+        if (!getDescriptor().isPollWithoutWorkspace()) {
+            return null;
+        }
+        return SelectorParser.parse(selector);
+    }
+
+    /**
+     * Polls by asking only for the changesets newer than the heads recorded by the last build.
+     * Heads found by the polls of other jobs in the last seconds are reused.
+     */
+    private boolean hasNewerChangesets(Server server, BranchHeadsAction branchHeads, TaskListener listener)
+            throws IOException, InterruptedException, ParseException {
+        for (BranchHead head : branchHeads.getHeads()) {
+            if (hasNewerChangesets(server, head, listener)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasNewerChangesets(Server server, BranchHead head, TaskListener listener)
+            throws IOException, InterruptedException, ParseException {
+        long ttlMillis = getDescriptor().getBranchHeadCacheSeconds() * 1000L;
+        long currentHead = BranchHeadCache.getHead(server, head, ttlMillis);
+        if (currentHead > head.getChangesetId()) {
+            listener.getLogger().println(String.format("Branch %s has new changesets after cs:%d (head is cs:%d)",
+                    head.getBranch(), head.getChangesetId(), currentHead));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Polls from the master the branches loaded by the selector, so no workspace or agent is needed.
+     * Branches whose head was recorded by the last build are polled by changeset id, the others
+     * by the date of the last build. Pinned rules are not polled, as what they load never changes.
+     */
+    private boolean pollWithoutWorkspace(Run<?,?> lastRun, List<SelectorParser.Rule> selectorRules,
+            Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        Hudson hudson = Hudson.getInstance();
+        if (launcher == null) {
+            launcher = hudson.createLauncher(listener);
+        }
+        PlasticTool tool = createPlasticTool(launcher, listener, hudson.getRootPath(), CommandLimiter.Priority.POLL);
+        try {
+            Server server = new Server(tool);
+            BranchHeadsAction branchHeads = lastRun.getAction(BranchHeadsAction.class);
+            for (SelectorParser.Rule rule : selectorRules) {
+                if (rule.isPinned()) {
+                    continue;
+                }
+                String branch = rule.getName();
+                BranchHead head = (branchHeads != null) ? branchHeads.findHead(rule.getRepository(), branch) : null;
+                if (head != null) {
+                    if (hasNewerChangesets(server, head, listener)) {
+                        return true;
+                    }
+                    continue;
+                }
+                GetBranchHeadCommand command = new GetBranchHeadCommand(server, branch, rule.getRepository(),
+                        BranchHead.UNKNOWN, lastRun.getTimestamp(), null);
+                long currentHead = server.execute(command);
+                if (currentHead != BranchHead.UNKNOWN) {
+                    listener.getLogger().println(String.format("Branch %s has new changesets since the last build (head is cs:%d)",
+                            branch, currentHead));
+                    return true;
+                }
+            }
+            return false;
+        } catch (ParseException e) {
+            listener.fatalError(e.getMessage());
+            throw new AbortException();
+        } finally {
+            tool.close();
+        }
+    }
+
+    private PlasticTool createPlasticTool(Launcher launcher, TaskListener listener, FilePath workspaceFilePath,
+            CommandLimiter.Priority priority) {
+        DescriptorImpl descriptor = getDescriptor();
+        PlasticTool tool = new PlasticTool(descriptor.getCmExecutable(), launcher, listener, workspaceFilePath, descriptor.isUseShell());
+        tool.setOutputSummaryLines(descriptor.getOutputSummaryLines());
+        if (descriptor.getMaxConcurrentCommands() > 0) {
+            CommandLimiter limiter = CommandLimiter.forServer(SelectorParser.getServer(selector));
+            limiter.setLimit(descriptor.getMaxConcurrentCommands());
+            tool.setLimiter(limiter, priority);
+        }
+        return tool;
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl)super.getDescriptor();
@@ -204,6 +407,18 @@ public class PlasticSCM extends SCM {
         private static final Pattern selectorRegex = Pattern.compile("^(\\s*(rep|repository)\\s+\"(.*)\"(\\s+mount\\s+\"(.*)\")?(\\s+path\\s+\"(.*)\"(\\s+norecursive)?(\\s+((((((branch|br)\\s+\"(.*)\")(\\s+(revno\\s+(\"\\d+\"|LAST|FIRST)|changeset\\s+\"\\S+\"))?(\\s+(label|lb)\\s+\"(.*)\")?)|(label|lb)\\s+\"(.*)\")(\\s+(checkout|co)\\s+\"(.*\"))?)|(branchpertask\\s+\"(.*)\"(\\s+baseline\\s+\"(.*)\")?)|(smartbranch\\s+\"(.*)\"))))+\\s*)+$", Pattern.MULTILINE|Pattern.CASE_INSENSITIVE);
 
         private String cmExecutable;
+        private boolean useShell;
+        private Integer revisionsChunkSize;
+        private Integer revisionsParallelism;
+        private Integer outputSummaryLines;
+        private boolean compressChangelog;
+        private boolean binaryChangelog;
+        private boolean pollByBranchHead;
+        private Integer branchHeadCacheSeconds;
+        private boolean pollWithoutWorkspace;
+        private Integer maxConcurrentCommands;
+        private Integer maxHistoryChangesets;
+        private Integer mountsParallelism;
 
         public DescriptorImpl() {
             super(PlasticSCM.class, null);
@@ -218,13 +433,130 @@ public class PlasticSCM extends SCM {
             }
         }
 
+        public boolean isUseShell() {
+            return useShell;
+        }
+
+        public boolean isCompressChangelog() {
+            return compressChangelog;
+        }
+
+        public boolean isBinaryChangelog() {
+            return binaryChangelog;
+        }
+
+        public boolean isPollByBranchHead() {
+            return pollByBranchHead;
+        }
+
+        public boolean isPollWithoutWorkspace() {
+            return pollWithoutWorkspace;
+        }
+
+        /**
+         * @return seconds a branch head found by a poll is reused by other polls; 0 disables the cache
+         */
+        public int getBranchHeadCacheSeconds() {
+            if (branchHeadCacheSeconds == null) {
+                return BranchHeadCache.DEFAULT_TTL_SECONDS;
+            } else if (branchHeadCacheSeconds < 0) {
+                return 0;
+            } else {
+                return branchHeadCacheSeconds;
+            }
+        }
+
+        public int getRevisionsChunkSize() {
+            if (revisionsChunkSize == null) {
+                return Workspace.DEFAULT_REVISIONS_CHUNK_SIZE;
+            } else {
+                return revisionsChunkSize;
+            }
+        }
+
+        /**
+         * @return number of output lines logged for commands like update; 0 logs the whole output
+         */
+        public int getOutputSummaryLines() {
+            if (outputSummaryLines == null || outputSummaryLines < 0) {
+                return 0;
+            } else {
+                return outputSummaryLines;
+            }
+        }
+
+        /**
+         * @return maximum number of cm commands run at the same time against each repository server; 0 for no limit
+         */
+        public int getMaxConcurrentCommands() {
+            if (maxConcurrentCommands == null || maxConcurrentCommands < 0) {
+                return 0;
+            } else {
+                return maxConcurrentCommands;
+            }
+        }
+
+        /**
+         * @return maximum number of changesets listed per branch in the changelog of a build; 0 for no limit
+         */
+        public int getMaxHistoryChangesets() {
+            if (maxHistoryChangesets == null || maxHistoryChangesets < 0) {
+                return 0;
+            } else {
+                return maxHistoryChangesets;
+            }
+        }
+
+        /**
+         * @return maximum number of queries about the mounted repositories of a workspace running at the same time
+         */
+        public int getMountsParallelism() {
+            if (mountsParallelism == null || mountsParallelism < 1) {
+                return 1;
+            } else {
+                return mountsParallelism;
+            }
+        }
+
+        public int getRevisionsParallelism() {
+            if (revisionsParallelism == null || revisionsParallelism < 1) {
+                return 1;
+            } else {
+                return revisionsParallelism;
+            }
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             cmExecutable = Util.fixEmpty(req.getParameter("plastic.cmExecutable").trim());
+            useShell = req.getParameter("plastic.useShell") != null;
+            revisionsChunkSize = parseInteger(req.getParameter("plastic.revisionsChunkSize"));
+            revisionsParallelism = parseInteger(req.getParameter("plastic.revisionsParallelism"));
+            outputSummaryLines = parseInteger(req.getParameter("plastic.outputSummaryLines"));
+            compressChangelog = req.getParameter("plastic.compressChangelog") != null;
+            binaryChangelog = req.getParameter("plastic.binaryChangelog") != null;
+            pollByBranchHead = req.getParameter("plastic.pollByBranchHead") != null;
+            branchHeadCacheSeconds = parseInteger(req.getParameter("plastic.branchHeadCacheSeconds"));
+            pollWithoutWorkspace = req.getParameter("plastic.pollWithoutWorkspace") != null;
+            maxConcurrentCommands = parseInteger(req.getParameter("plastic.maxConcurrentCommands"));
+            maxHistoryChangesets = parseInteger(req.getParameter("plastic.maxHistoryChangesets"));
+            mountsParallelism = parseInteger(req.getParameter("plastic.mountsParallelism"));
             save();
             return true;
         }
 
+        static Integer parseInteger(String value) {
+            value = Util.fixEmptyAndTrim(value);
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
         private FormValidation doRegexCheck(final Pattern[] regexArray, final String noMatchText,
                 final String nullText, String value) {
             value = Util.fixEmpty(value);
@@ -1,17 +1,40 @@
 package com.codicesoftware.plugins.hudson;
 
+import com.codicesoftware.plugins.hudson.commands.FirstResultCommand;
+import com.codicesoftware.plugins.hudson.commands.ParseableCommand;
+import com.codicesoftware.plugins.hudson.model.CommandMetrics;
+import com.codicesoftware.plugins.hudson.util.CommandLimiter;
+import com.codicesoftware.plugins.hudson.util.SummarizingOutputStream;
 import hudson.AbortException;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Proc;
 import hudson.model.TaskListener;
+import hudson.remoting.FastPipedInputStream;
+import hudson.remoting.FastPipedOutputStream;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.ForkOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.apache.commons.io.output.CountingOutputStream;
 
 /**
  * Class that encapsulates the Plastic SCM command client.
@@ -24,9 +47,22 @@ public class PlasticTool {
     private Launcher launcher;
     private TaskListener listener;
     private FilePath workspace;
+    private boolean useShell;
+    /** Every open shell session, and those not running a command */
+    private final List<CmShellSession> shells = new ArrayList<CmShellSession>();
+    private final LinkedList<CmShellSession> idleShells = new LinkedList<CmShellSession>();
+    private final CommandMetrics metrics = new CommandMetrics();
+    private int outputSummaryLines;
+    private CommandLimiter limiter;
+    private CommandLimiter.Priority priority = CommandLimiter.Priority.BUILD;
 
     private static final Logger logger = Logger.getLogger(PlasticTool.class.getName());
 
+    /** How long a process whose output failed to parse is given to end by itself */
+    private static final long PROCESS_END_TIMEOUT = 1000;
+
+    private static final ExecutorService parserExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+
     public PlasticTool(String executable, Launcher launcher, TaskListener listener,
             FilePath workspace) {
         this.executable = executable;
@@ -35,10 +71,50 @@ public class PlasticTool {
         this.workspace = workspace;
     }
 
+    public PlasticTool(String executable, Launcher launcher, TaskListener listener,
+            FilePath workspace, boolean useShell) {
+        this(executable, launcher, listener, workspace);
+        this.useShell = useShell;
+    }
+
+    public String getExecutable() {
+        return executable;
+    }
+
+    public synchronized boolean isUseShell() {
+        return useShell;
+    }
+
+    /**
+     * Sets how the output of the commands executed without parsing is logged
+     * @param outputSummaryLines 0 or less logs the whole output; otherwise only the
+     * number of lines per operation and the given number of last lines are logged
+     */
+    public void setOutputSummaryLines(int outputSummaryLines) {
+        this.outputSummaryLines = outputSummaryLines;
+    }
+
+    /**
+     * Makes the commands wait for a free slot of the limiter of their repository server
+     * @param limiter the limiter; null to run commands without waiting
+     * @param priority the priority of the commands in the queue of the limiter
+     */
+    public void setLimiter(CommandLimiter limiter, CommandLimiter.Priority priority) {
+        this.limiter = limiter;
+        this.priority = priority;
+    }
+
     public TaskListener getListener() {
         return listener;
     }
 
+    /**
+     * @return the timing and I/O figures of the commands run by this tool
+     */
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Execute the arguments, and return the console output as a Reader
      * @param arguments arguments to send to the command-line client.
@@ -59,12 +135,288 @@ public class PlasticTool {
      * @throws InterruptedException
      */
     public Reader execute(String[] arguments, boolean[] masks) throws IOException, InterruptedException {
+        ByteArrayOutputStream consoleStream = new ByteArrayOutputStream();
+        CountingOutputStream countingStream = new CountingOutputStream(consoleStream);
+        acquireSlot(arguments[0]);
+        long start;
+        int result;
+        try {
+            start = System.currentTimeMillis();
+            result = run(arguments, masks, new ForkOutputStream(countingStream, listener.getLogger()));
+        } finally {
+            releaseSlot();
+        }
+        consoleStream.close();
+        metrics.record(arguments[0], System.currentTimeMillis() - start, 0, countingStream.getByteCount(), result);
+
+        checkResult(arguments, result);
+        return new InputStreamReader(new ByteArrayInputStream(consoleStream.toByteArray()));
+    }
+
+    /**
+     * Execute the arguments, streaming the console output into the command parser
+     * while the process is still running. The output is never fully buffered in memory;
+     * it goes through a bounded pipe that is consumed by the parser on a separate thread.
+     * The process of a {@link FirstResultCommand} is stopped as soon as its result is parsed,
+     * unless it runs in the cm shell session.
+     * @param arguments arguments to send to the command-line client.
+     * @param masks which of the commands that should be masked from the console.
+     * @param command the command that parses the console output.
+     * @return the parsed console output
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ParseException
+     */
+    public <T> T execute(String[] arguments, boolean[] masks, ParseableCommand<T> command)
+            throws IOException, InterruptedException, ParseException {
+        if (command instanceof FirstResultCommand && !isUseShell()) {
+            return executeUntilParsed(arguments, masks, command);
+        }
+
+        acquireSlot(arguments[0]);
+        FastPipedInputStream consoleInput = new FastPipedInputStream();
+        FastPipedOutputStream consoleOutput = new FastPipedOutputStream(consoleInput);
+        OutputParser<T> parser = new OutputParser<T>(command, consoleInput, true);
+        Future<T> parsedOutput = parserExecutor.submit(parser);
+
+        CountingOutputStream countingStream = new CountingOutputStream(consoleOutput);
+        long start = System.currentTimeMillis();
+        int result;
+        try {
+            result = run(arguments, masks, new ForkOutputStream(countingStream, listener.getLogger()));
+        } finally {
+            releaseSlot();
+            consoleOutput.close();
+        }
+        long wallTime = System.currentTimeMillis() - start;
+
+        try {
+            return getParsedOutput(parsedOutput);
+        } finally {
+            metrics.record(arguments[0], wallTime, parser.getParseTime(), countingStream.getByteCount(), result);
+            // An unexpected result code takes precedence over any parse error
+            checkResult(arguments, result);
+        }
+    }
+
+    /**
+     * Launches the process and stops it as soon as the parser returns. The result
+     * code is only checked if the process ended by itself. If the output cannot be
+     * parsed, the process is stopped unless it ends by itself shortly, as nobody
+     * reads the rest of its output.
+     */
+    private <T> T executeUntilParsed(String[] arguments, boolean[] masks, ParseableCommand<T> command)
+            throws IOException, InterruptedException, ParseException {
+        acquireSlot(arguments[0]);
+        FastPipedInputStream consoleInput = new FastPipedInputStream();
+        final FastPipedOutputStream consoleOutput = new FastPipedOutputStream(consoleInput);
+        OutputParser<T> parser = new OutputParser<T>(command, consoleInput, false);
+        Future<T> parsedOutput = parserExecutor.submit(parser);
+
+        CountingOutputStream countingStream = new CountingOutputStream(consoleOutput);
+        long start = System.currentTimeMillis();
+        final Proc proc;
+        try {
+            proc = launcher.launch().cmds(getToolArguments(arguments)).masks(getToolMasks(arguments, masks))
+                    .stdout(new ForkOutputStream(countingStream, listener.getLogger())).pwd(workspace).start();
+        } catch (IOException e) {
+            releaseSlot();
+            consoleOutput.close();
+            throw e;
+        }
+        // The end of the process is the end of the output, which the parser may be waiting for
+        Future<Integer> exitCode = parserExecutor.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                try {
+                    return proc.join();
+                } finally {
+                    consoleOutput.close();
+                }
+            }
+        });
+
+        int result = 0;
+        try {
+            T value = getParsedOutput(parsedOutput);
+            if (exitCode.isDone()) {
+                result = getExitCode(exitCode);
+            } else {
+                proc.kill();
+                logger.fine(String.format("Stopped the cm command '%s' once its result was read", arguments[0]));
+            }
+            return value;
+        } catch (IOException e) {
+            result = stopUnlessEnded(proc, exitCode, arguments[0]);
+            throw e;
+        } catch (ParseException e) {
+            result = stopUnlessEnded(proc, exitCode, arguments[0]);
+            throw e;
+        } finally {
+            // Interrupted, or the parser failed with an unchecked exception
+            if (!exitCode.isDone()) {
+                proc.kill();
+            }
+            releaseSlot();
+            metrics.record(arguments[0], System.currentTimeMillis() - start, parser.getParseTime(),
+                    countingStream.getByteCount(), result);
+            // An unexpected result code takes precedence over any parse error
+            checkResult(arguments, result);
+        }
+    }
+
+    /**
+     * Execute the arguments without keeping the console output in memory. The output
+     * only goes to the build log, either completely or as a summary.
+     * @param arguments arguments to send to the command-line client.
+     * @param masks which of the commands that should be masked from the console.
+     * @throws IOException
+     * @throws InterruptedException
+     * @see #setOutputSummaryLines(int)
+     */
+    public void executeDiscardingOutput(String[] arguments, boolean[] masks) throws IOException, InterruptedException {
+        OutputStream logStream = listener.getLogger();
+        if (outputSummaryLines > 0) {
+            logStream = new SummarizingOutputStream(listener.getLogger(), outputSummaryLines);
+        }
+        CountingOutputStream countingStream = new CountingOutputStream(logStream);
+
+        acquireSlot(arguments[0]);
+        long start = System.currentTimeMillis();
+        int result;
+        try {
+            result = run(arguments, masks, countingStream);
+        } finally {
+            releaseSlot();
+            if (logStream instanceof SummarizingOutputStream) {
+                logStream.close();
+            }
+        }
+        metrics.record(arguments[0], System.currentTimeMillis() - start, 0, countingStream.getByteCount(), result);
+
+        checkResult(arguments, result);
+    }
+
+    /**
+     * Waits for a free slot of the repository server, if the commands are limited.
+     * Every call must be followed by a call to {@link #releaseSlot()}.
+     * @param verb the cm command verb the wait is recorded for
+     */
+    public void acquireSlot(String verb) throws InterruptedException {
+        if (limiter == null) {
+            return;
+        }
+        long queueTime = limiter.acquire(priority);
+        if (queueTime > 0) {
+            metrics.recordQueueTime(verb, queueTime);
+        }
+        if (queueTime >= 1000) {
+            listener.getLogger().println(String.format("Waited %d ms for a free cm slot on the repository server %s",
+                    queueTime, limiter.getServer().length() > 0 ? limiter.getServer() : "(default)"));
+        }
+    }
+
+    public void releaseSlot() {
+        if (limiter != null) {
+            limiter.release();
+        }
+    }
+
+    /**
+     * Ends the cm shell sessions, if any were started.
+     */
+    public synchronized void close() {
+        for (CmShellSession session : shells) {
+            session.close();
+        }
+        shells.clear();
+        idleShells.clear();
+    }
+
+    /**
+     * Runs the command, in a cm shell session if enabled, otherwise in a new process.
+     * @param output receives the console output
+     * @return the result code of the command
+     */
+    private int run(String[] arguments, boolean[] masks, OutputStream output)
+            throws IOException, InterruptedException {
+        CmShellSession session = leaseShellSession();
+        if (session != null) {
+            try {
+                return session.execute(arguments, masks, output);
+            } catch (CmShellSession.ShellException e) {
+                listener.getLogger().println("The cm shell session failed, falling back to running cm processes: " + e.getMessage());
+                logger.log(Level.WARNING, "cm shell session failed", e);
+            } finally {
+                releaseShellSession(session);
+            }
+        }
+
+        Proc proc = launcher.launch().cmds(getToolArguments(arguments)).masks(getToolMasks(arguments, masks))
+                .stdout(output).pwd(workspace).start();
+        return proc.join();
+    }
+
+    /**
+     * Gets a shell session no other command is using, starting a new one if they are
+     * all busy, so commands run in parallel get a shell process each.
+     * @return the session; null if the shell is not used
+     */
+    private synchronized CmShellSession leaseShellSession() throws InterruptedException {
+        if (!useShell) {
+            return null;
+        }
+        if (!idleShells.isEmpty()) {
+            return idleShells.removeFirst();
+        }
+        try {
+            CmShellSession session = CmShellSession.start(executable, launcher, listener, workspace);
+            shells.add(session);
+            return session;
+        } catch (IOException e) {
+            listener.getLogger().println("Could not start a cm shell session, falling back to running cm processes: " + e.getMessage());
+            logger.log(Level.WARNING, "Could not start cm shell", e);
+            disableShell();
+            return null;
+        }
+    }
+
+    /**
+     * Makes the session available to the next command. A failed session is ended; a new
+     * one is started when needed, unless the shell stopped responding, in which case the
+     * rest of the commands run as processes.
+     */
+    private synchronized void releaseShellSession(CmShellSession session) {
+        if (!session.isBroken() && useShell) {
+            idleShells.addFirst(session);
+            return;
+        }
+        shells.remove(session);
+        session.close();
+        if (session.isTimedOut() && useShell) {
+            listener.getLogger().println("The cm shell stopped responding, running cm processes from now on");
+            disableShell();
+        }
+    }
+
+    private synchronized void disableShell() {
+        useShell = false;
+        for (CmShellSession session : idleShells) {
+            shells.remove(session);
+            session.close();
+        }
+        idleShells.clear();
+    }
+
+    private String[] getToolArguments(String[] arguments) {
         String[] toolArguments = new String[arguments.length + 1];
         toolArguments[0] = executable;
         for (int i = 0; i < arguments.length; i++) {
             toolArguments[i + 1] = arguments[i];
         }
+        return toolArguments;
+    }
 
+    private boolean[] getToolMasks(String[] arguments, boolean[] masks) {
         boolean[] toolMasks = new boolean[arguments.length + 1];
         if (masks != null) {
             toolMasks = new boolean[masks.length + 1];
@@ -73,20 +425,121 @@ public class PlasticTool {
                 toolMasks[i + 1] = masks[i];
             }
         }
+        return toolMasks;
+    }
 
-        ByteArrayOutputStream consoleStream = new ByteArrayOutputStream();
-        Proc proc = launcher.launch().cmds(toolArguments).masks(toolMasks)
-                .stdout(new ForkOutputStream(consoleStream, listener.getLogger()))
-                .pwd(workspace).start();
-        consoleStream.close();
-
-        int result = proc.join();
-        logger.fine(String.format("The cm command '%s' returned with an error code of %d", toolArguments[1], result));
-        if (result == 0) {
-            return new InputStreamReader(new ByteArrayInputStream(consoleStream.toByteArray()));
-        } else {
+    private void checkResult(String[] arguments, int result) throws AbortException {
+        logger.fine(String.format("The cm command '%s' returned with an error code of %d", arguments[0], result));
+        if (result != 0) {
             listener.fatalError(String.format("Executable returned an unexpected result code [%d]", result));
             throw new AbortException();
         }
     }
+
+    private <T> T getParsedOutput(Future<T> parsedOutput)
+            throws IOException, InterruptedException, ParseException {
+        try {
+            return parsedOutput.get();
+        } catch (InterruptedException e) {
+            parsedOutput.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            IOException exception = new IOException("Failed to parse the cm output");
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    /**
+     * Waits shortly for the process to end by itself, and stops it otherwise.
+     * @return the result code of the process, or 0 if it had to be stopped
+     */
+    private int stopUnlessEnded(Proc proc, Future<Integer> exitCode, String verb)
+            throws IOException, InterruptedException {
+        try {
+            exitCode.get(PROCESS_END_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // reported by getExitCode
+        } catch (TimeoutException e) {
+            proc.kill();
+            getExitCode(exitCode);
+            logger.fine(String.format("Stopped the cm command '%s' as its output could not be parsed", verb));
+            return 0;
+        }
+        return getExitCode(exitCode);
+    }
+
+    private int getExitCode(Future<Integer> exitCode) throws IOException, InterruptedException {
+        try {
+            return exitCode.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            IOException exception = new IOException("Failed to wait for the cm process");
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    /**
+     * Parses the console output as it arrives. Whatever the parser leaves unread is
+     * either drained, so the process never blocks on a full pipe, or discarded by
+     * closing the pipe when the process is going to be stopped.
+     */
+    private static class OutputParser<T> implements Callable<T> {
+        private final ParseableCommand<T> command;
+        private final InputStream input;
+        private final boolean drainOutput;
+        private volatile long parseTime;
+
+        OutputParser(ParseableCommand<T> command, InputStream input, boolean drainOutput) {
+            this.command = command;
+            this.input = input;
+            this.drainOutput = drainOutput;
+        }
+
+        public T call() throws IOException, ParseException {
+            long start = System.currentTimeMillis();
+            try {
+                return command.parse(new InputStreamReader(input));
+            } finally {
+                parseTime = System.currentTimeMillis() - start;
+                if (drainOutput) {
+                    drain(input);
+                } else {
+                    input.close();
+                }
+            }
+        }
+
+        long getParseTime() {
+            return parseTime;
+        }
+
+        private static void drain(InputStream input) throws IOException {
+            byte[] buffer = new byte[8192];
+            try {
+                while (input.read(buffer) != -1) {
+                    // discard
+                }
+            } finally {
+                input.close();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,27 +1,90 @@
 package com.codicesoftware.plugins.hudson.actions;
 
+import com.codicesoftware.plugins.hudson.model.BranchHead;
+import com.codicesoftware.plugins.hudson.model.BranchHeadsAction;
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
 import com.codicesoftware.plugins.hudson.model.Server;
 import com.codicesoftware.plugins.hudson.model.Workspace;
 import com.codicesoftware.plugins.hudson.model.Workspaces;
+import com.codicesoftware.plugins.hudson.util.PathFilter;
 import hudson.FilePath;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import org.apache.commons.io.IOUtils;
 
 public class CheckoutAction {
     private final String workspaceName;
     private final String selector;
     private final String workfolder;
     private final boolean useUpdate;
+    private final int revisionsChunkSize;
+    private final int revisionsParallelism;
+    private boolean recordBranchHeads;
+    private BranchHeadsAction previousBranchHeads;
+    private List<BranchHead> branchHeads;
+    private int maxHistoryChangesets;
+    private int mountsParallelism = 1;
+    private String cloakedRules;
 
     public CheckoutAction(String workspaceName, String selector, String workfolder, boolean useUpdate) {
+        this(workspaceName, selector, workfolder, useUpdate, Workspace.DEFAULT_REVISIONS_CHUNK_SIZE, 1);
+    }
+
+    public CheckoutAction(String workspaceName, String selector, String workfolder, boolean useUpdate,
+            int revisionsChunkSize, int revisionsParallelism) {
         this.workspaceName = workspaceName;
         this.selector = selector;
         this.workfolder = workfolder;
         this.useUpdate = useUpdate;
+        this.revisionsChunkSize = revisionsChunkSize;
+        this.revisionsParallelism = revisionsParallelism;
+    }
+
+    /**
+     * Makes the checkout record the changeset loaded from each branch of the workspace
+     * @param previousBranchHeads the heads recorded by the previous build, or null
+     * @see #getBranchHeads()
+     */
+    public void setRecordBranchHeads(BranchHeadsAction previousBranchHeads) {
+        this.recordBranchHeads = true;
+        this.previousBranchHeads = previousBranchHeads;
+    }
+
+    /**
+     * @param mountsParallelism maximum number of queries about the mounted repositories
+     * of the workspace running at the same time
+     */
+    public void setMountsParallelism(int mountsParallelism) {
+        this.mountsParallelism = mountsParallelism;
+    }
+
+    /**
+     * @param cloakedRules the contents of the cloaked.conf file written to the root of the
+     * workspace before it is updated; null if no paths are excluded, which removes the
+     * file written by a previous build
+     */
+    public void setCloakedRules(String cloakedRules) {
+        this.cloakedRules = cloakedRules;
+    }
+
+    /**
+     * @param maxHistoryChangesets maximum number of changesets listed per branch, the newest ones;
+     * 0 or less for no limit
+     */
+    public void setMaxHistoryChangesets(int maxHistoryChangesets) {
+        this.maxHistoryChangesets = maxHistoryChangesets;
+    }
+
+    /**
+     * @return the changeset loaded from each branch of the workspace by the checkout;
+     * null unless requested before the checkout
+     */
+    public List<BranchHead> getBranchHeads() {
+        return branchHeads;
     }
 
     public List<ChangeSet> checkout(Server server, FilePath workspacePath, Calendar lastBuildTimestamp, Calendar currentBuildTimestamp)
@@ -35,27 +98,120 @@ public class CheckoutAction {
         }
 
         Workspace workspace;
+        List<BranchHead> upToDateHeads = null;
         if (!workspaces.exists(workspaceName)) {
             if (!useUpdate && workspacePath.exists()) {
                 workspacePath.deleteContents();
             }
             workspace = workspaces.newWorkspace(workspacePath, workspaceName, workfolder, selector);
+            workspace.setMountsParallelism(mountsParallelism);
+            writeCloakedRules(server, workspacePath);
             workspace.getFiles(workfolder);
         } else {
             workspace = workspaces.getWorkspace(workspaceName);
+            workspace.setMountsParallelism(mountsParallelism);
+            // Paths no longer cloaked are only downloaded by a full update
+            boolean cloakedRulesChanged = writeCloakedRules(server, workspacePath);
             if (!workspace.getSelector().equals(selector)) {
                 workspace.setSelector(selector);
                 workspaces.setWorkspaceSelector(workspacePath, workspace);
             }
             else {
-                workspace.getFiles(workfolder);
+                if (!cloakedRulesChanged) {
+                    upToDateHeads = workspace.getHeadsIfUpToDate();
+                }
+                if (upToDateHeads == null) {
+                    workspace.getFiles(workfolder);
+                } else {
+                    server.getTool().getListener().getLogger().println(String.format(
+                            "Workspace %s is already at the head of its branches %s with no pending changes; skipping the update",
+                            workspaceName, upToDateHeads));
+                }
             }
         }
 
+        if (recordBranchHeads) {
+            if (upToDateHeads != null) {
+                branchHeads = upToDateHeads;
+            } else {
+                branchHeads = workspace.getLoadedHeads();
+            }
+        }
+
+        if (upToDateHeads != null && isBuilt(upToDateHeads)) {
+            server.getTool().getListener().getLogger().println("No changesets since the previous build; skipping the history");
+            return new ArrayList<ChangeSet>();
+        }
 
         if (lastBuildTimestamp != null) {
-            return workspace.getDetailedHistory(lastBuildTimestamp, currentBuildTimestamp);
+            GetHistoryCallable history = new GetHistoryCallable(server.getTool(), workspace,
+                    lastBuildTimestamp, currentBuildTimestamp, true, revisionsChunkSize, revisionsParallelism);
+            if (branchHeads != null && previousBranchHeads != null) {
+                // The changesets between the ones loaded by the previous build and by this one
+                history.setChangesetRange(previousBranchHeads.getHeads(), branchHeads);
+            }
+            history.setMaxChangesets(maxHistoryChangesets);
+            history.setMountsParallelism(mountsParallelism);
+            return history.getHistory(server, workspacePath);
         }
         return new ArrayList<ChangeSet>();
     }
+
+    /**
+     * Writes the cloaked.conf file of the workspace, or deletes it if no paths are
+     * excluded, unless the existing one was not written by the plugin: it may be under
+     * version control, or edited by hand.
+     * @return true if the cloaked.conf file of the workspace was written or deleted
+     */
+    private boolean writeCloakedRules(Server server, FilePath workspacePath) throws IOException, InterruptedException {
+        FilePath cloakedFile = new FilePath(workspacePath, workfolder).child(PathFilter.CLOAKED_FILE);
+        if (cloakedFile.exists()) {
+            String current;
+            InputStream input = cloakedFile.read();
+            try {
+                current = IOUtils.toString(input, "UTF-8");
+            } finally {
+                input.close();
+            }
+            if (current.equals(cloakedRules)) {
+                return false;
+            }
+            if (!current.startsWith(PathFilter.CLOAKED_FILE_HEADER)) {
+                if (cloakedRules == null) {
+                    return false;
+                }
+                server.getTool().getListener().getLogger().println(String.format(
+                        "The %s file of workspace %s was not written by this plugin and may be under version control; "
+                        + "it is left as it is, and the excluded paths of the job are not applied", PathFilter.CLOAKED_FILE,
+                        workspaceName));
+                return false;
+            }
+            if (cloakedRules == null) {
+                server.getTool().getListener().getLogger().println(String.format(
+                        "No paths are excluded; deleting the %s file of workspace %s", PathFilter.CLOAKED_FILE, workspaceName));
+                cloakedFile.delete();
+                return true;
+            }
+        } else if (cloakedRules == null) {
+            return false;
+        }
+        cloakedFile.write(cloakedRules, "UTF-8");
+        return true;
+    }
+
+    /**
+     * @return true if the previous build recorded the same heads, so there is no history to list
+     */
+    private boolean isBuilt(List<BranchHead> heads) {
+        if (previousBranchHeads == null) {
+            return false;
+        }
+        for (BranchHead head : heads) {
+            BranchHead previous = previousBranchHeads.getHead(head);
+            if (previous == null || previous.getChangesetId() != head.getChangesetId()) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,164 @@
+package com.codicesoftware.plugins.hudson.actions;
+
+import com.codicesoftware.plugins.hudson.PlasticTool;
+import com.codicesoftware.plugins.hudson.model.BranchHead;
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import com.codicesoftware.plugins.hudson.model.CommandMetrics;
+import com.codicesoftware.plugins.hudson.model.Server;
+import com.codicesoftware.plugins.hudson.model.Workspace;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Gathers the history of a workspace on the node where the workspace lives.
+ * <p>
+ * All the cm commands needed to build the history (workspace info, status,
+ * branch resolution, history and revisions) run next to the workspace, and
+ * only the resulting changesets travel back over the remoting channel.
+ */
+public class GetHistoryCallable implements FilePath.FileCallable<GetHistoryCallable.Result> {
+    private static final long serialVersionUID = 1L;
+
+    private final String executable;
+    private final boolean useShell;
+    private final TaskListener listener;
+    private final String workspaceName;
+    private final String workspacePath;
+    private final Calendar fromTimestamp;
+    private final Calendar toTimestamp;
+    private final boolean detailed;
+    private final int revisionsChunkSize;
+    private final int revisionsParallelism;
+    private List<BranchHead> previousHeads;
+    private List<BranchHead> currentHeads;
+    private int maxChangesets;
+    private boolean logLimit = true;
+    private int mountsParallelism = 1;
+
+    /**
+     * @param tool the tool whose settings are used on the node
+     * @param workspace the workspace to get the history of
+     * @param detailed true to fill in the revisions of each changeset
+     */
+    public GetHistoryCallable(PlasticTool tool, Workspace workspace, Calendar fromTimestamp, Calendar toTimestamp,
+            boolean detailed, int revisionsChunkSize, int revisionsParallelism) {
+        this.executable = tool.getExecutable();
+        this.useShell = tool.isUseShell();
+        this.listener = tool.getListener();
+        this.workspaceName = workspace.getName();
+        this.workspacePath = workspace.getPath();
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+        this.detailed = detailed;
+        this.revisionsChunkSize = revisionsChunkSize;
+        this.revisionsParallelism = revisionsParallelism;
+    }
+
+    /**
+     * Lists the history by changeset id for the branches with a head in both lists
+     * @see Workspace#setChangesetRange(List, List)
+     */
+    public void setChangesetRange(List<BranchHead> previousHeads, List<BranchHead> currentHeads) {
+        this.previousHeads = new ArrayList<BranchHead>(previousHeads);
+        this.currentHeads = new ArrayList<BranchHead>(currentHeads);
+    }
+
+    /**
+     * @param maxChangesets maximum number of changesets listed per branch, the newest ones; 0 or less for no limit
+     */
+    public void setMaxChangesets(int maxChangesets) {
+        setMaxChangesets(maxChangesets, true);
+    }
+
+    /**
+     * @param maxChangesets maximum number of changesets listed per branch, the newest ones; 0 or less for no limit
+     * @param logLimit true to tell the build log when the history of a branch is cut at the limit
+     */
+    public void setMaxChangesets(int maxChangesets, boolean logLimit) {
+        this.maxChangesets = maxChangesets;
+        this.logLimit = logLimit;
+    }
+
+    /**
+     * @param mountsParallelism maximum number of queries about the mounted repositories running at the same time
+     */
+    public void setMountsParallelism(int mountsParallelism) {
+        this.mountsParallelism = mountsParallelism;
+    }
+
+    /**
+     * Gets the history of the workspace, running the cm commands on the node of the workspace
+     * @param server the server whose metrics are updated with the commands run on the node
+     * @param workspaceRoot root of the workspace of the build
+     * @return the changesets
+     */
+    public List<ChangeSet> getHistory(Server server, FilePath workspaceRoot)
+            throws IOException, InterruptedException, ParseException {
+        // The commands run on the node take a single slot of the repository server
+        Result result;
+        server.getTool().acquireSlot("history");
+        try {
+            result = workspaceRoot.act(this);
+        } finally {
+            server.getTool().releaseSlot();
+        }
+        server.getTool().getMetrics().add(result.metrics);
+        if (result.parseError != null) {
+            throw new ParseException(result.parseError, 0);
+        }
+        return result.changesets;
+    }
+
+    public Result invoke(File f, VirtualChannel channel) throws IOException {
+        PlasticTool tool = new PlasticTool(executable, new Launcher.LocalLauncher(listener), listener,
+                new FilePath(f), useShell);
+        try {
+            Workspace workspace = new Workspace(new Server(tool), workspaceName, workspacePath, null);
+            workspace.setChangesetRange(previousHeads, currentHeads);
+            workspace.setMaxHistoryChangesets(maxChangesets, logLimit);
+            workspace.setMountsParallelism(mountsParallelism);
+            List<ChangeSet> changesets;
+            if (detailed) {
+                changesets = workspace.getDetailedHistory(fromTimestamp, toTimestamp,
+                        revisionsChunkSize, revisionsParallelism);
+            } else {
+                changesets = workspace.getBriefHistory(fromTimestamp, toTimestamp);
+            }
+            return new Result(changesets, tool.getMetrics(), null);
+        } catch (ParseException e) {
+            return new Result(null, tool.getMetrics(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortException("Interrupted while getting the history");
+        } finally {
+            tool.close();
+        }
+    }
+
+    /**
+     * The history of the workspace, and the figures of the commands that produced it
+     */
+    public static class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ChangeSet> changesets;
+        private final CommandMetrics metrics;
+        private final String parseError;
+
+        Result(List<ChangeSet> changesets, CommandMetrics metrics, String parseError) {
+            this.changesets = changesets;
+            this.metrics = metrics;
+            this.parseError = parseError;
+        }
+    }
+}
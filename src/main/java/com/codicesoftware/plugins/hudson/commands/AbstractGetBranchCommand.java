@@ -0,0 +1,54 @@
+package com.codicesoftware.plugins.hudson.commands;
+
+import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the branch of an object with a cm find query that only prints the branch
+ * field, one line per result. The first branch found is the result.
+ */
+public abstract class AbstractGetBranchCommand extends AbstractCommand implements FirstResultCommand<String> {
+    private static final Pattern totalRegex = Pattern.compile("^Total:\\s*\\d+$");
+
+    public AbstractGetBranchCommand(ServerConfigurationProvider provider) {
+        super(provider);
+    }
+
+    /**
+     * @param objectType the type of object to find
+     * @param condition the where condition that selects the object
+     * @param repoName the repository of the object
+     */
+    protected MaskedArgumentListBuilder getArguments(String objectType, String condition, String repoName) {
+        MaskedArgumentListBuilder arguments = new MaskedArgumentListBuilder();
+
+        arguments.add("find");
+        arguments.add(objectType);
+        arguments.add("where");
+        arguments.add(condition);
+        arguments.add("on");
+        arguments.add("repositories");
+        arguments.add("'" + repoName + "'");
+        arguments.add("--format={branch}");
+
+        return arguments;
+    }
+
+    public String parse(Reader r) throws IOException, ParseException {
+        BufferedReader reader = new BufferedReader(r);
+        String line = reader.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (line.length() > 0 && !totalRegex.matcher(line).matches()) {
+                return line;
+            }
+            line = reader.readLine();
+        }
+
+        throw new ParseException("Could not find branch in query results", 0);
+    }
+}
@@ -3,51 +3,123 @@ package com.codicesoftware.plugins.hudson.commands;
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
 import com.codicesoftware.plugins.hudson.util.DateUtil;
 import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
+import com.codicesoftware.plugins.hudson.util.SortableDateFormat;
+import com.codicesoftware.plugins.hudson.util.XmlDocumentReader;
 import hudson.util.Digester2;
 import java.io.IOException;
 import java.io.Reader;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.digester.Digester;
 import org.xml.sax.SAXException;
 
 public class DetailedHistoryCommand extends AbstractCommand implements ParseableCommand<List<ChangeSet>> {
+    /** No changeset id bound */
+    public static final long NO_CHANGESET = -1;
+
     private final Calendar fromTimestamp;
     private final Calendar toTimestamp;
+    private final long fromChangesetId;
+    private final long toChangesetId;
     private final String branch;
     private final String repository;
+    private long pageMaxChangesetId = NO_CHANGESET;
+    private int pageSize;
+
+    /**
+     * Set this system property to parse the output with commons-digester instead of StAX.
+     */
+    private static final boolean USE_DIGESTER = Boolean.getBoolean(DetailedHistoryCommand.class.getName() + ".useDigester");
+
+    /** Root element of the output; the "Total:" line the client prints after it is ignored */
+    private static final String ROOT_ELEMENT = "PLASTICQUERY";
 
-    private final SimpleDateFormat dateFormatter =
-    		new SimpleDateFormat(DateUtil.DEFAULT_SORTABLE_FORMAT);
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private final SortableDateFormat dateFormatter = new SortableDateFormat(TimeZone.getDefault());
 
     public DetailedHistoryCommand(ServerConfigurationProvider configurationProvider,
             Calendar fromTimestamp, Calendar toTimestamp, String branch, String repository) {
         super(configurationProvider);
         this.fromTimestamp = fromTimestamp;
         this.toTimestamp = toTimestamp;
+        this.fromChangesetId = NO_CHANGESET;
+        this.toChangesetId = NO_CHANGESET;
+        this.branch = branch;
+        this.repository = repository;
+    }
+
+    /**
+     * Lists the changesets of the branch by changeset id instead of by date
+     * @param fromChangesetId changesets up to this one are not listed
+     * @param toChangesetId changesets newer than this one are not listed
+     */
+    public DetailedHistoryCommand(ServerConfigurationProvider configurationProvider,
+            long fromChangesetId, long toChangesetId, String branch, String repository) {
+        super(configurationProvider);
+        this.fromTimestamp = null;
+        this.toTimestamp = null;
+        this.fromChangesetId = fromChangesetId;
+        this.toChangesetId = toChangesetId;
         this.branch = branch;
         this.repository = repository;
     }
 
+    /**
+     * Lists only a page of the newest changesets, newest first
+     * @param maxChangesetId changesets newer than this one are not listed; {@link #NO_CHANGESET} for no bound
+     * @param size maximum number of changesets listed
+     */
+    public void setPage(long maxChangesetId, int size) {
+        this.pageMaxChangesetId = maxChangesetId;
+        this.pageSize = size;
+    }
+
     public MaskedArgumentListBuilder getArguments() {
         MaskedArgumentListBuilder arguments = new MaskedArgumentListBuilder();
 
         arguments.add("find");
         arguments.add("changeset");
         arguments.add("where");
-        arguments.add("date");
-        arguments.add("between");
-        arguments.add("'" + dateFormatter.format(fromTimestamp.getTime()) + "'");
-        arguments.add("and");
-        arguments.add("'" + dateFormatter.format(toTimestamp.getTime()) + "'");
-        arguments.add("and");
+        if (fromTimestamp != null) {
+            arguments.add("date");
+            arguments.add("between");
+            arguments.add("'" + dateFormatter.format(fromTimestamp.getTime()) + "'");
+            arguments.add("and");
+            arguments.add("'" + dateFormatter.format(toTimestamp.getTime()) + "'");
+            arguments.add("and");
+        }
+        if (fromChangesetId != NO_CHANGESET) {
+            arguments.add("changesetid>" + fromChangesetId);
+            arguments.add("and");
+        }
+        long maxChangesetId = toChangesetId;
+        if (pageMaxChangesetId != NO_CHANGESET && (maxChangesetId == NO_CHANGESET || pageMaxChangesetId < maxChangesetId)) {
+            maxChangesetId = pageMaxChangesetId;
+        }
+        if (maxChangesetId != NO_CHANGESET) {
+            arguments.add("changesetid<=" + maxChangesetId);
+            arguments.add("and");
+        }
         arguments.add("branch='" + branch + "'");
         arguments.add("on");
         arguments.add("repositories");
         arguments.add("'" + repository + "'");
+        if (pageSize > 0) {
+            arguments.add("order");
+            arguments.add("by");
+            arguments.add("changesetid");
+            arguments.add("desc");
+            arguments.add("limit");
+            arguments.add(Integer.toString(pageSize));
+        }
         
         arguments.add("--xml");
         arguments.add("--dateformat=" + DateUtil.DEFAULT_SORTABLE_FORMAT);
@@ -57,6 +129,83 @@ public class DetailedHistoryCommand extends AbstractCommand implements Parseable
     }
 
     public List<ChangeSet> parse(Reader reader) throws IOException, ParseException {
+        if (USE_DIGESTER) {
+            return parseWithDigester(reader);
+        }
+        return parseWithStax(reader);
+    }
+
+    /**
+     * Pull parser for the --xml output that fills in the changesets directly.
+     * The element texts are trimmed, the same way the digester rules do.
+     */
+    List<ChangeSet> parseWithStax(Reader reader) throws IOException, ParseException {
+        ArrayList<ChangeSet> list = new ArrayList<ChangeSet>();
+
+        try {
+            XMLStreamReader xml = xmlInputFactory.createXMLStreamReader(new XmlDocumentReader(reader, ROOT_ELEMENT));
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && "CHANGESET".equals(xml.getLocalName())) {
+                        list.add(parseChangeset(xml));
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new ParseException("Parse error: " + e.getMessage(), 0);
+        }
+
+        return list;
+    }
+
+    private ChangeSet parseChangeset(XMLStreamReader xml) throws XMLStreamException, ParseException {
+        ChangeSet changeset = new ChangeSet();
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return changeset;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+
+            String name = xml.getLocalName();
+            if ("CHANGESETID".equals(name)) {
+                changeset.setVersion(xml.getElementText().trim());
+            } else if ("COMMENT".equals(name)) {
+                changeset.setComment(xml.getElementText().trim());
+            } else if ("DATE".equals(name)) {
+                changeset.setChangesetDateStr(xml.getElementText().trim());
+            } else if ("OWNER".equals(name)) {
+                changeset.setUser(xml.getElementText().trim());
+            } else if ("REPNAME".equals(name)) {
+                changeset.setRepoName(xml.getElementText().trim());
+            } else if ("REPSERVER".equals(name)) {
+                changeset.setRepoServer(xml.getElementText().trim());
+            } else {
+                skipElement(xml);
+            }
+        }
+
+        return changeset;
+    }
+
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    List<ChangeSet> parseWithDigester(Reader reader) throws IOException, ParseException {
         ArrayList<ChangeSet> list = new ArrayList<ChangeSet>();
 
         Digester digester = new Digester2();
@@ -72,11 +221,19 @@ public class DetailedHistoryCommand extends AbstractCommand implements Parseable
         digester.addSetNext("*/CHANGESET", "add");
 
         try {
-            digester.parse(reader);
+            digester.parse(new XmlDocumentReader(reader, ROOT_ELEMENT));
         } catch (SAXException e) {
             throw new ParseException("Parse error: " + e.getMessage(), 0);
         }
 
         return list;
     }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        return factory;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.codicesoftware.plugins.hudson.commands;
+
+/**
+ * Command whose parser returns as soon as it has read the result it is looking for.
+ * The rest of the output is not needed, so the cm process is stopped once the
+ * result has been parsed.
+ *
+ * @param <T> the return type when parsing the output from the command line client.
+ */
+public interface FirstResultCommand<T> extends ParseableCommand<T> {
+}
@@ -0,0 +1,93 @@
+package com.codicesoftware.plugins.hudson.commands;
+
+import com.codicesoftware.plugins.hudson.util.DateUtil;
+import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
+import com.codicesoftware.plugins.hudson.util.SortableDateFormat;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Finds the newest changeset of a branch, only asking for the ids of the
+ * changesets newer than a known one. The result is the known id if there are none.
+ */
+public class GetBranchHeadCommand extends AbstractCommand implements ParseableCommand<Long> {
+    private final String branch;
+    private final String repository;
+    private final long knownChangesetId;
+    private final Calendar fromTimestamp;
+    private final Calendar toTimestamp;
+
+    private final SortableDateFormat dateFormatter = new SortableDateFormat(TimeZone.getDefault());
+
+    /**
+     * @param knownChangesetId only changesets newer than this one are listed; -1 lists all of them
+     * @param toTimestamp if not null, changesets created after it are ignored
+     */
+    public GetBranchHeadCommand(ServerConfigurationProvider provider, String branch, String repository,
+            long knownChangesetId, Calendar toTimestamp) {
+        this(provider, branch, repository, knownChangesetId, null, toTimestamp);
+    }
+
+    /**
+     * @param knownChangesetId only changesets newer than this one are listed; -1 lists all of them
+     * @param fromTimestamp if not null, changesets created before it are ignored
+     * @param toTimestamp if not null, changesets created after it are ignored
+     */
+    public GetBranchHeadCommand(ServerConfigurationProvider provider, String branch, String repository,
+            long knownChangesetId, Calendar fromTimestamp, Calendar toTimestamp) {
+        super(provider);
+        this.branch = branch;
+        this.repository = repository;
+        this.knownChangesetId = knownChangesetId;
+        this.fromTimestamp = fromTimestamp;
+        this.toTimestamp = toTimestamp;
+    }
+
+    public MaskedArgumentListBuilder getArguments() {
+        MaskedArgumentListBuilder arguments = new MaskedArgumentListBuilder();
+
+        arguments.add("find");
+        arguments.add("changeset");
+        arguments.add("where");
+        arguments.add("branch='" + branch + "'");
+        arguments.add("and");
+        arguments.add("changesetid>" + knownChangesetId);
+        if (fromTimestamp != null) {
+            arguments.add("and");
+            arguments.add("date>'" + dateFormatter.format(fromTimestamp.getTime()) + "'");
+        }
+        if (toTimestamp != null) {
+            arguments.add("and");
+            arguments.add("date<='" + dateFormatter.format(toTimestamp.getTime()) + "'");
+        }
+        arguments.add("on");
+        arguments.add("repositories");
+        arguments.add("'" + repository + "'");
+        arguments.add("--format={changesetid}");
+        arguments.add("--dateformat=" + DateUtil.DEFAULT_SORTABLE_FORMAT);
+
+        return arguments;
+    }
+
+    public Long parse(Reader r) throws IOException, ParseException {
+        long head = knownChangesetId;
+        BufferedReader reader = new BufferedReader(r);
+        String line = reader.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (line.length() > 0 && Character.isDigit(line.charAt(0))) {
+                try {
+                    head = Math.max(head, Long.parseLong(line));
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Unexpected changeset id " + line, 0);
+                }
+            }
+            line = reader.readLine();
+        }
+        return head;
+    }
+}
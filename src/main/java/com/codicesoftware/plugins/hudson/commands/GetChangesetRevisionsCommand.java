@@ -3,14 +3,17 @@ package com.codicesoftware.plugins.hudson.commands;
 import com.codicesoftware.plugins.hudson.model.ChangeSet;
 import com.codicesoftware.plugins.hudson.util.DateUtil;
 import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
+import com.codicesoftware.plugins.hudson.util.XmlDocumentReader;
 import hudson.util.Digester2;
 import java.io.IOException;
 import java.io.Reader;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.digester.Digester;
 import org.xml.sax.SAXException;
 
-public class GetChangesetRevisionsCommand extends AbstractCommand {
+public class GetChangesetRevisionsCommand extends AbstractCommand implements ParseableCommand<List<ChangeSet.Item>> {
     private final String csVersion;
     private final String repoName;
 
@@ -37,9 +40,11 @@ public class GetChangesetRevisionsCommand extends AbstractCommand {
         return arguments;
     }
 
-    public void parse(Reader reader, ChangeSet cs) throws IOException, ParseException {
+    public List<ChangeSet.Item> parse(Reader reader) throws IOException, ParseException {
+        List<ChangeSet.Item> list = new ArrayList<ChangeSet.Item>();
+
         Digester digester = new Digester2();
-        digester.push(cs);
+        digester.push(list);
 
         digester.addObjectCreate("*/REVISION", ChangeSet.Item.class);
         digester.addBeanPropertySetter("*/REVISION/ITEM", "path");
@@ -48,9 +53,11 @@ public class GetChangesetRevisionsCommand extends AbstractCommand {
         digester.addSetNext("*/REVISION", "add");
 
         try {
-            digester.parse(reader);
+            digester.parse(new XmlDocumentReader(reader, "PLASTICQUERY"));
         } catch (SAXException e) {
             throw new ParseException("Parse error: " + e.getMessage(), 0);
         }
+
+        return list;
     }
 }
@@ -0,0 +1,156 @@
+package com.codicesoftware.plugins.hudson.commands;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import com.codicesoftware.plugins.hudson.util.DateUtil;
+import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
+import com.codicesoftware.plugins.hudson.util.XmlDocumentReader;
+import hudson.util.Digester2;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.digester.Digester;
+import org.xml.sax.SAXException;
+
+/**
+ * Finds the revisions of several changesets of a repository in one query.
+ * The parsed revisions are grouped by the id of the changeset they belong to.
+ */
+public class GetRevisionsForChangesetsCommand extends AbstractCommand implements ParseableCommand<Map<String, List<ChangeSet.Item>>> {
+    private final List<String> csVersions;
+    private final String repoName;
+
+    public GetRevisionsForChangesetsCommand(ServerConfigurationProvider configurationProvider,
+            List<String> csVersions, String repoName) {
+        super(configurationProvider);
+        this.csVersions = csVersions;
+        this.repoName = repoName;
+    }
+
+    public MaskedArgumentListBuilder getArguments() {
+        MaskedArgumentListBuilder arguments = new MaskedArgumentListBuilder();
+
+        arguments.add("find");
+        arguments.add("revisions");
+        arguments.add("where");
+        arguments.add(getChangesetCondition());
+        arguments.add("on");
+        arguments.add("repositories");
+        arguments.add("'" + repoName + "'");
+        arguments.add("--xml");
+        arguments.add("--dateformat=" + DateUtil.DEFAULT_SORTABLE_FORMAT);
+
+        return arguments;
+    }
+
+    /**
+     * Contiguous ids are queried as a range, any other set as a list of alternatives.
+     */
+    private String getChangesetCondition() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        boolean numeric = true;
+        for (String version : csVersions) {
+            try {
+                long id = Long.parseLong(version);
+                first = Math.min(first, id);
+                last = Math.max(last, id);
+            } catch (NumberFormatException e) {
+                numeric = false;
+            }
+        }
+
+        if (numeric && last - first + 1 == csVersions.size()) {
+            return "changeset>=" + first + " and changeset<=" + last;
+        }
+
+        StringBuilder builder = new StringBuilder("(");
+        for (String version : csVersions) {
+            if (builder.length() > 1) {
+                builder.append(" or ");
+            }
+            builder.append("changeset=").append(version);
+        }
+        return builder.append(")").toString();
+    }
+
+    public Map<String, List<ChangeSet.Item>> parse(Reader reader) throws IOException, ParseException {
+        List<Revision> revisions = new ArrayList<Revision>();
+
+        Digester digester = new Digester2();
+        digester.push(revisions);
+
+        digester.addObjectCreate("*/REVISION", Revision.class);
+        digester.addBeanPropertySetter("*/REVISION/ITEM", "path");
+        digester.addBeanPropertySetter("*/REVISION/REVNO", "revno");
+        digester.addBeanPropertySetter("*/REVISION/PARENT", "parentRevno");
+        digester.addBeanPropertySetter("*/REVISION/CHANGESET", "changeset");
+        digester.addSetNext("*/REVISION", "add");
+
+        try {
+            digester.parse(new XmlDocumentReader(reader, "PLASTICQUERY"));
+        } catch (SAXException e) {
+            throw new ParseException("Parse error: " + e.getMessage(), 0);
+        }
+
+        Map<String, List<ChangeSet.Item>> map = new HashMap<String, List<ChangeSet.Item>>();
+        for (Revision revision : revisions) {
+            List<ChangeSet.Item> items = map.get(revision.getChangeset());
+            if (items == null) {
+                items = new ArrayList<ChangeSet.Item>();
+                map.put(revision.getChangeset(), items);
+            }
+            items.add(revision.toItem());
+        }
+        return map;
+    }
+
+    /**
+     * A revision of the query output, along with the changeset it belongs to.
+     */
+    public static class Revision {
+        private String path = "";
+        private String revno = "";
+        private String parentRevno = "";
+        private String changeset = "";
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getRevno() {
+            return revno;
+        }
+
+        public void setRevno(String revno) {
+            this.revno = revno;
+        }
+
+        public String getParentRevno() {
+            return parentRevno;
+        }
+
+        public void setParentRevno(String parentRevno) {
+            this.parentRevno = parentRevno;
+        }
+
+        public String getChangeset() {
+            return changeset;
+        }
+
+        public void setChangeset(String changeset) {
+            this.changeset = changeset.trim();
+        }
+
+        ChangeSet.Item toItem() {
+            return new ChangeSet.Item(path, revno, parentRevno);
+        }
+    }
+}
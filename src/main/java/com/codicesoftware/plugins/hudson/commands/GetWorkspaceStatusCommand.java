@@ -15,6 +15,7 @@ public class GetWorkspaceStatusCommand extends AbstractCommand implements Parsea
     private static final Pattern statusRegex = Pattern.compile("^cs:(\\d+)@rep:(.+)@repserver:(.+):(\\d+)$");
 
     private String workFolder = ".";
+    private boolean clean = true;
 
     public GetWorkspaceStatusCommand(ServerConfigurationProvider provider) {
         super(provider);
@@ -43,10 +44,20 @@ public class GetWorkspaceStatusCommand extends AbstractCommand implements Parsea
                 ChangesetID cs = new ChangesetID(matcher.group(1), matcher.group(2),
                         matcher.group(3), matcher.group(4));
                 list.add(cs);
+            } else if (line.trim().length() > 0) {
+                clean = false;
             }
             line = reader.readLine();
         }
 
         return list;
     }
+
+    /**
+     * @return true if the parsed output only listed the loaded changesets, so the
+     * workspace has no checkouts or other pending changes
+     */
+    public boolean isClean() {
+        return clean;
+    }
 }
\ No newline at end of file
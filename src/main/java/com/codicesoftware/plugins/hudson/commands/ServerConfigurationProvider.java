@@ -3,7 +3,10 @@ package com.codicesoftware.plugins.hudson.commands;
 import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
 import java.io.IOException;
 import java.io.Reader;
+import java.text.ParseException;
 
 public interface ServerConfigurationProvider {
     public Reader execute(MaskedArgumentListBuilder args) throws IOException, InterruptedException;
+
+    public <T> T execute(ParseableCommand<T> command) throws IOException, InterruptedException, ParseException;
 }
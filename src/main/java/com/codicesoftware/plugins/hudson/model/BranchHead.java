@@ -0,0 +1,67 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import java.io.Serializable;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+/**
+ * The newest changeset of a branch of a repository that a build has seen.
+ */
+public class BranchHead implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** No changeset of the branch is known */
+    public static final long UNKNOWN = -1;
+
+    private final String repository;
+    private final String branch;
+    private final long changesetId;
+
+    /**
+     * @param repository the repository, as used in the "on repositories" clause of cm find
+     * @param branch the full name of the branch
+     * @param changesetId the id of the changeset
+     */
+    public BranchHead(String repository, String branch, long changesetId) {
+        this.repository = repository;
+        this.branch = branch;
+        this.changesetId = changesetId;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public long getChangesetId() {
+        return changesetId;
+    }
+
+    public boolean isSameBranch(BranchHead other) {
+        return repository.equals(other.repository) && branch.equals(other.branch);
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder(13, 27).append(repository).append(branch).append(changesetId).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if ((obj == null) || (getClass() != obj.getClass()))
+            return false;
+        final BranchHead other = (BranchHead) obj;
+        return new EqualsBuilder().append(repository, other.repository)
+                .append(branch, other.branch).append(changesetId, other.changesetId).isEquals();
+    }
+
+    @Override
+    public String toString() {
+        return "cs:" + changesetId + "@br:" + branch + "@" + repository;
+    }
+}
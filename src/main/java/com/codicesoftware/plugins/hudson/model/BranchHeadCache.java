@@ -0,0 +1,138 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import com.codicesoftware.plugins.hudson.commands.GetBranchHeadCommand;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Master-wide cache of the head changeset of the branches polled by jobs, keyed by
+ * repository (which includes the repository server) and branch.
+ * <p>
+ * A head found by one poll is reused by the polls of other jobs watching the same
+ * branch for a short time. Polls that need a head being queried at that moment wait
+ * for that query instead of running their own.
+ * <p>
+ * Heads only move forward, so a cached head is valid for a job as long as it is not
+ * older than the head recorded by the job's last build; otherwise the branch is queried again.
+ */
+public class BranchHeadCache {
+    public static final int DEFAULT_TTL_SECONDS = 30;
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private static final Logger logger = Logger.getLogger(BranchHeadCache.class.getName());
+
+    private BranchHeadCache() {
+    }
+
+    /**
+     * Gets the current head of the branch
+     * @param server the server used if the branch has to be queried
+     * @param known the head recorded by the last build
+     * @param ttlMillis how long a head is reused; 0 or less always queries the branch
+     * @return the id of the head changeset, never older than the known one
+     */
+    public static long getHead(Server server, BranchHead known, long ttlMillis)
+            throws IOException, InterruptedException, ParseException {
+        if (ttlMillis <= 0) {
+            return queryHead(server, known);
+        }
+
+        String key = known.getRepository() + "\n" + known.getBranch();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired(ttlMillis)) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+
+        boolean owner = false;
+        if (entry == null) {
+            Entry created = new Entry(server, known);
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+                owner = true;
+                created.run();
+            }
+        }
+
+        try {
+            long head = entry.get();
+            if (head >= known.getChangesetId()) {
+                if (!owner) {
+                    logger.fine("Reusing the head of " + known.getBranch() + " found by another poll: cs:" + head);
+                }
+                return head;
+            }
+            // The cached head is older than the one this job already knows about
+            entries.remove(key, entry);
+        } catch (ExecutionException e) {
+            entries.remove(key, entry);
+            Throwable cause = e.getCause();
+            if (owner || !(cause instanceof InterruptedException)) {
+                throw rethrow(cause);
+            }
+            // the poll that ran the query was interrupted, not this one
+        }
+        return queryHead(server, known);
+    }
+
+    private static long queryHead(Server server, BranchHead known)
+            throws IOException, InterruptedException, ParseException {
+        GetBranchHeadCommand command = new GetBranchHeadCommand(server, known.getBranch(), known.getRepository(),
+                known.getChangesetId(), null);
+        return server.execute(command);
+    }
+
+    private static IOException rethrow(Throwable cause)
+            throws IOException, InterruptedException, ParseException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof ParseException) {
+            throw (ParseException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        IOException exception = new IOException("Branch head query failed: " + cause);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * A head query, run by the first poll that needs it and awaited by the others.
+     */
+    private static class Entry extends FutureTask<Long> {
+        private volatile long completedAt;
+
+        Entry(final Server server, final BranchHead known) {
+            super(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return queryHead(server, known);
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            completedAt = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return isDone() && System.currentTimeMillis() - completedAt > ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import hudson.model.InvisibleAction;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An action for storing in a build the changeset its workspace loaded from each
+ * branch, so polling only has to ask for newer changesets on those branches.
+ */
+public class BranchHeadsAction extends InvisibleAction implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<BranchHead> heads;
+
+    public BranchHeadsAction(List<BranchHead> heads) {
+        this.heads = new ArrayList<BranchHead>(heads);
+    }
+
+    public List<BranchHead> getHeads() {
+        return Collections.unmodifiableList(heads);
+    }
+
+    public boolean isEmpty() {
+        return heads.isEmpty();
+    }
+
+    /**
+     * @return the head of the same branch and repository, or null if it is not known
+     */
+    public BranchHead getHead(BranchHead branch) {
+        for (BranchHead head : heads) {
+            if (head.isSameBranch(branch)) {
+                return head;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the head of a branch named in a selector. A repository given without its server
+     * also matches the same repository recorded with a server.
+     * @return the recorded head, or null if it is not known
+     */
+    public BranchHead findHead(String repository, String branch) {
+        for (BranchHead head : heads) {
+            if (head.getBranch().equals(branch) && (head.getRepository().equals(repository)
+                    || (repository.indexOf('@') < 0 && head.getRepository().startsWith(repository + "@")))) {
+                return head;
+            }
+        }
+        return null;
+    }
+}
@@ -1,25 +1,34 @@
 package com.codicesoftware.plugins.hudson.model;
 
+import com.codicesoftware.plugins.hudson.BinaryChangeLog;
 import hudson.model.AbstractBuild;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import org.kohsuke.stapler.export.Exported;
 
 /**
  * ChangeLogSet for the Plastic SCM
  * The log set will set the parent of the log entries in the constructor.
+ * The changesets of a binary change log are decoded on demand, so the log set
+ * sets their parent as they are iterated instead.
+ * The strings of all the changesets are shared through a {@link StringPool}.
  *
  * @author Erik Ramfelt
  * @author Dick Porter
  */
 public class ChangeLogSet extends hudson.scm.ChangeLogSet<ChangeSet> {
     private final List<ChangeSet> changesets;
+    private final StringPool pool = new StringPool();
 
     public ChangeLogSet(AbstractBuild build, List<ChangeSet> changesets) {
         super(build);
         this.changesets = changesets;
-        for (ChangeSet changeset : changesets) {
-            changeset.setParent(this);
+        if (!(changesets instanceof BinaryChangeLog.ChangeSetList)) {
+            for (ChangeSet changeset : changesets) {
+                changeset.setParent(this);
+                changeset.intern(pool);
+            }
         }
     }
 
@@ -28,6 +37,7 @@ public class ChangeLogSet extends hudson.scm.ChangeLogSet<ChangeSet> {
         changesets = new ArrayList<ChangeSet>();
         for (ChangeSet changeset : changesetArray) {
             changeset.setParent(this);
+            changeset.intern(pool);
             changesets.add(changeset);
         }
     }
@@ -37,7 +47,49 @@ public class ChangeLogSet extends hudson.scm.ChangeLogSet<ChangeSet> {
         return changesets.isEmpty();
     }
 
+    /**
+     * @return the number of changesets, read from the header of binary change logs
+     */
+    @Exported
+    public int getChangesetCount() {
+        return changesets.size();
+    }
+
+    /**
+     * @return the number of items of all the changesets, read from the header of binary change logs
+     */
+    @Exported
+    public long getItemCount() {
+        if (changesets instanceof BinaryChangeLog.ChangeSetList) {
+            return ((BinaryChangeLog.ChangeSetList) changesets).getItemCount();
+        }
+        long count = 0;
+        for (ChangeSet changeset : changesets) {
+            count += changeset.getItems().size();
+        }
+        return count;
+    }
+
     public Iterator<ChangeSet> iterator() {
-        return changesets.iterator();
+        final Iterator<ChangeSet> iterator = changesets.iterator();
+        if (!(changesets instanceof BinaryChangeLog.ChangeSetList)) {
+            return iterator;
+        }
+        return new Iterator<ChangeSet>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public ChangeSet next() {
+                ChangeSet changeset = iterator.next();
+                changeset.setParent(ChangeLogSet.this);
+                changeset.intern(pool);
+                return changeset;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,347 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import com.codicesoftware.plugins.hudson.PlasticSCM;
+import com.codicesoftware.plugins.hudson.util.SelectorParser;
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.RootAction;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.scm.SCM;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Endpoint for Plastic SCM triggers to notify new changesets, so jobs are built
+ * without polling. A notification is a POST to /plasticscm-hook/ with the parameters:
+ * <ul>
+ * <li>repository: the repository, with or without its server</li>
+ * <li>branch: the full name of the branch</li>
+ * <li>changeset: the id of the new changeset, optional</li>
+ * </ul>
+ * Every job whose selector loads that branch, and that the caller has permission to
+ * build, is scheduled, unless its last build already has the changeset. Jobs are
+ * found through an index of the branches of the selectors, dropped whenever a job
+ * is created, saved, renamed or deleted, and rebuilt on the next notification.
+ */
+@Extension
+public class ChangeNotificationAction implements RootAction {
+    public static final String URL_NAME = "plasticscm-hook";
+
+    private static final Logger logger = Logger.getLogger(ChangeNotificationAction.class.getName());
+
+    private static Index<AbstractProject<?,?>> index;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (!"POST".equalsIgnoreCase(req.getMethod())) {
+            rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Notifications must be posted");
+            return;
+        }
+        Notification notification;
+        try {
+            notification = Notification.parse(req.getParameter("repository"), req.getParameter("branch"),
+                    req.getParameter("changeset"));
+        } catch (IllegalArgumentException e) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        List<AbstractProject<?,?>> scheduled = notifyChangeset(notification.getRepository(),
+                notification.getBranch(), notification.getChangesetId(), req.getRemoteAddr());
+
+        rsp.setStatus(HttpServletResponse.SC_OK);
+        rsp.setContentType("text/plain;charset=UTF-8");
+        PrintWriter writer = rsp.getWriter();
+        writer.println("Scheduled " + scheduled.size() + " job(s)");
+        for (AbstractProject<?,?> project : scheduled) {
+            writer.println(project.getFullName());
+        }
+    }
+
+    /**
+     * Schedules the jobs whose selector loads the branch, and that the current user
+     * has permission to build
+     * @param repository the repository, with or without its server
+     * @param branch the full name of the branch
+     * @param changesetId the new changeset, or {@link BranchHead#UNKNOWN}
+     * @param origin who sent the notification
+     * @return the jobs that were scheduled
+     */
+    public static List<AbstractProject<?,?>> notifyChangeset(String repository, String branch, long changesetId,
+            String origin) {
+        repository = Notification.stripPrefix(repository, "rep:");
+        branch = Notification.stripPrefix(branch, "br:");
+
+        List<AbstractProject<?,?>> scheduled = new ArrayList<AbstractProject<?,?>>();
+        for (Index.Entry<AbstractProject<?,?>> entry : getIndex().get(repository, branch)) {
+            AbstractProject<?,?> project = entry.project;
+            if (!project.hasPermission(AbstractProject.BUILD)) {
+                logger.fine("Notification from " + origin + " has no permission to build " + project.getFullName());
+                continue;
+            }
+            if (project.isDisabled() || isBuilt(project, entry.repository, branch, changesetId)) {
+                continue;
+            }
+            if (project.scheduleBuild(new ChangeNotificationCause(branch, changesetId, origin))) {
+                scheduled.add(project);
+            }
+        }
+        logger.info("Notification of " + (changesetId != BranchHead.UNKNOWN ? "cs:" + changesetId + " on " : "")
+                + branch + "@" + repository + " from " + origin + " scheduled " + scheduled.size() + " job(s)");
+        return scheduled;
+    }
+
+    /**
+     * @return true if the last build of the project recorded the changeset, or a newer one, as the head of the branch
+     */
+    private static boolean isBuilt(AbstractProject<?,?> project, String repository, String branch, long changesetId) {
+        if (changesetId == BranchHead.UNKNOWN || project.getLastBuild() == null) {
+            return false;
+        }
+        BranchHeadsAction branchHeads = project.getLastBuild().getAction(BranchHeadsAction.class);
+        BranchHead head = (branchHeads != null) ? branchHeads.findHead(repository, branch) : null;
+        return head != null && head.getChangesetId() >= changesetId;
+    }
+
+    /**
+     * @return the index of the current configuration, built if it was dropped
+     */
+    private static synchronized Index<AbstractProject<?,?>> getIndex() {
+        if (index == null) {
+            Index<AbstractProject<?,?>> newIndex = new Index<AbstractProject<?,?>>();
+            for (AbstractProject<?,?> project : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+                SCM scm = project.getScm();
+                if (scm instanceof PlasticSCM && !newIndex.add(project, ((PlasticSCM) scm).getSelector())) {
+                    logger.fine("The selector of " + project.getFullName() + " can't be indexed");
+                }
+            }
+            index = newIndex;
+        }
+        return index;
+    }
+
+    private static synchronized void invalidateIndex() {
+        index = null;
+    }
+
+    /**
+     * The parameters of a notification
+     */
+    static class Notification {
+        private final String repository;
+        private final String branch;
+        private final long changesetId;
+
+        Notification(String repository, String branch, long changesetId) {
+            this.repository = repository;
+            this.branch = branch;
+            this.changesetId = changesetId;
+        }
+
+        /**
+         * @param repository the repository, with or without its server and rep: prefix
+         * @param branch the full name of the branch, with or without its br: prefix
+         * @param changeset the id of the changeset, with or without its cs: prefix; may be null
+         * @throws IllegalArgumentException if a parameter is missing or invalid, with the message for the caller
+         */
+        static Notification parse(String repository, String branch, String changeset) {
+            repository = Util.fixEmptyAndTrim(repository);
+            branch = Util.fixEmptyAndTrim(branch);
+            changeset = Util.fixEmptyAndTrim(changeset);
+            if (repository == null || branch == null) {
+                throw new IllegalArgumentException("The repository and branch parameters are required");
+            }
+            long changesetId = BranchHead.UNKNOWN;
+            if (changeset != null) {
+                try {
+                    changesetId = Long.parseLong(stripPrefix(changeset, "cs:"));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid changeset " + changeset);
+                }
+                if (changesetId < 0) {
+                    throw new IllegalArgumentException("Invalid changeset " + changeset);
+                }
+            }
+            return new Notification(stripPrefix(repository, "rep:"), stripPrefix(branch, "br:"), changesetId);
+        }
+
+        static String stripPrefix(String spec, String prefix) {
+            return spec.startsWith(prefix) ? spec.substring(prefix.length()) : spec;
+        }
+
+        String getRepository() {
+            return repository;
+        }
+
+        String getBranch() {
+            return branch;
+        }
+
+        long getChangesetId() {
+            return changesetId;
+        }
+    }
+
+    /**
+     * The jobs of each branch loaded by a selector, keyed by repository name, without
+     * its server, and branch name.
+     */
+    static class Index<P> {
+        private final Map<String, List<Entry<P>>> entries = new HashMap<String, List<Entry<P>>>();
+
+        /**
+         * Adds the job to the branches its selector loads. Pinned rules are skipped.
+         * @return false if the selector can't be indexed
+         */
+        boolean add(P project, String selector) {
+            List<SelectorParser.Rule> rules = SelectorParser.parse(selector);
+            if (rules == null) {
+                return false;
+            }
+            for (SelectorParser.Rule rule : rules) {
+                // Labels, changesets and revisions don't change when new changesets are checked in
+                if (rule.isPinned()) {
+                    continue;
+                }
+                String key = getKey(rule.getRepository(), rule.getName());
+                List<Entry<P>> keyEntries = entries.get(key);
+                if (keyEntries == null) {
+                    keyEntries = new ArrayList<Entry<P>>();
+                    entries.put(key, keyEntries);
+                }
+                keyEntries.add(new Entry<P>(project, rule.getRepository()));
+            }
+            return true;
+        }
+
+        /**
+         * @return the jobs loading the branch from the repository, without duplicates
+         */
+        List<Entry<P>> get(String repository, String branch) {
+            List<Entry<P>> keyEntries = entries.get(getKey(repository, branch));
+            if (keyEntries == null) {
+                return Collections.emptyList();
+            }
+            List<Entry<P>> matches = new ArrayList<Entry<P>>();
+            List<P> matchedProjects = new ArrayList<P>();
+            for (Entry<P> entry : keyEntries) {
+                if (isSameServer(entry.repository, repository) && !matchedProjects.contains(entry.project)) {
+                    matches.add(entry);
+                    matchedProjects.add(entry.project);
+                }
+            }
+            return matches;
+        }
+
+        private static String getKey(String repository, String branch) {
+            int at = repository.indexOf('@');
+            return (at < 0 ? repository : repository.substring(0, at)) + "\n" + branch;
+        }
+
+        /**
+         * Repositories given without a server match those of any server
+         */
+        private static boolean isSameServer(String repository, String other) {
+            return repository.indexOf('@') < 0 || other.indexOf('@') < 0 || repository.equals(other);
+        }
+
+        static class Entry<P> {
+            final P project;
+            final String repository;
+
+            Entry(P project, String repository) {
+                this.project = project;
+                this.repository = repository;
+            }
+        }
+    }
+
+    /**
+     * Drops the index when jobs are created, renamed, deleted or loaded.
+     */
+    @Extension
+    public static class IndexItemListener extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            invalidateIndex();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidateIndex();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            invalidateIndex();
+        }
+
+        @Override
+        public void onLoaded() {
+            invalidateIndex();
+        }
+    }
+
+    /**
+     * Drops the index when the configuration of a job is saved, which is when its SCM may change.
+     */
+    @Extension
+    public static class IndexSaveableListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof AbstractProject) {
+                invalidateIndex();
+            }
+        }
+    }
+
+    /**
+     * A build started by a notification of the repository server.
+     */
+    public static class ChangeNotificationCause extends Cause {
+        private final String branch;
+        private final long changesetId;
+        private final String origin;
+
+        public ChangeNotificationCause(String branch, long changesetId, String origin) {
+            this.branch = branch;
+            this.changesetId = changesetId;
+            this.origin = origin;
+        }
+
+        @Override
+        public String getShortDescription() {
+            if (changesetId == BranchHead.UNKNOWN) {
+                return "Started by a Plastic SCM notification for " + branch + " from " + origin;
+            }
+            return "Started by a Plastic SCM notification of cs:" + changesetId + " on " + branch + " from " + origin;
+        }
+    }
+}
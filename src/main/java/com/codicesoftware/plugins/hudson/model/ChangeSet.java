@@ -4,26 +4,39 @@ import com.codicesoftware.plugins.hudson.util.DateUtil;
 import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.EditType;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 @ExportedBean(defaultVisibility=999)
-public class ChangeSet extends ChangeLogSet.Entry {
+public class ChangeSet extends ChangeLogSet.Entry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String version;
     private String repoName;
     private String repoServer;
     private String user;
     private Date date;
     private String comment;
-    private List<Item> items;
+    private transient List<Item> items;
+    private transient ItemsLoader itemsLoader;
+    private transient String itemsLoadError;
+    private transient StringPool pool;
     private String workspaceDir;
 
+    private static final Logger logger = Logger.getLogger(ChangeSet.class.getName());
+
     public ChangeSet() {
         this("", "", "", null, "", "");
     }
@@ -42,6 +55,7 @@ public class ChangeSet extends ChangeLogSet.Entry {
     
     @Override
     public Collection<String> getAffectedPaths() {
+        List<Item> items = getItems();
         Collection<String> paths = new ArrayList<String>(items.size());
         for (Item item : items) {
             paths.add(item.getPath());
@@ -119,12 +133,16 @@ public class ChangeSet extends ChangeLogSet.Entry {
         return date;
     }
 
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
     public void setChangesetDateStr(String dateStr) throws ParseException {
-        date = DateUtil.PLASTICSCM_DATETIME_FORMATTER.get().parse(dateStr);
+        date = DateUtil.PLASTICSCM_DATETIME.parse(dateStr);
     }
 
     public void setDateStr(String dateStr) throws ParseException {
-        date = DateUtil.PLASTICSCM_DATETIME_FORMATTER.get().parse(dateStr);
+        date = DateUtil.PLASTICSCM_DATETIME.parse(dateStr);
     }
 
     @Exported
@@ -137,13 +155,72 @@ public class ChangeSet extends ChangeLogSet.Entry {
     }
 
     @Exported
-    public List<Item> getItems() {
+    public synchronized List<Item> getItems() {
+        loadItems();
         return items;
     }
 
-    public void add(ChangeSet.Item item) {
+    public synchronized void add(ChangeSet.Item item) {
+        loadItems();
         items.add(item);
         item.setParent(this);
+        if (pool != null) {
+            item.intern(pool);
+        }
+    }
+
+    /**
+     * Replaces the strings of this changeset and its items with the ones of the
+     * change log pool. Items read later on are added to the pool as they are read.
+     */
+    synchronized void intern(StringPool pool) {
+        if (this.pool != null) {
+            return;
+        }
+        this.pool = pool;
+        user = pool.intern(user);
+        repoName = pool.intern(repoName);
+        repoServer = pool.intern(repoServer);
+        workspaceDir = pool.intern(workspaceDir);
+        for (Item item : items) {
+            item.intern(pool);
+        }
+    }
+
+    /**
+     * @return why the items of this changeset could not be read, or null if they were read
+     */
+    public synchronized String getItemsLoadError() {
+        loadItems();
+        return itemsLoadError;
+    }
+
+    /**
+     * Defers reading the items until they are first needed
+     * @param itemsLoader loader that reads the items of this changeset
+     */
+    public synchronized void setItemsLoader(ItemsLoader itemsLoader) {
+        this.itemsLoader = itemsLoader;
+    }
+
+    private void loadItems() {
+        if (itemsLoader == null) {
+            return;
+        }
+        ItemsLoader loader = itemsLoader;
+        itemsLoader = null;
+        try {
+            for (Item item : loader.load()) {
+                items.add(item);
+                item.setParent(this);
+                if (pool != null) {
+                    item.intern(pool);
+                }
+            }
+        } catch (IOException e) {
+            itemsLoadError = e.getMessage() != null ? e.getMessage() : e.toString();
+            logger.log(Level.SEVERE, "Could not read the items of changeset " + version, e);
+        }
     }
 
     @Override
@@ -151,19 +228,63 @@ public class ChangeSet extends ChangeLogSet.Entry {
         super.setParent(parent);
     }
 
+    /**
+     * Writes the items as plain strings, which is much more compact than serializing
+     * every item object along with its back reference to the changeset.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<Item> items = getItems();
+        out.writeInt(items.size());
+        for (Item item : items) {
+            out.writeUTF(item.getPath());
+            out.writeUTF(item.getRevno());
+            out.writeUTF(item.getParentRevno());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        items = new ArrayList<Item>(size);
+        for (int i = 0; i < size; i++) {
+            add(new Item(in.readUTF(), in.readUTF(), in.readUTF()));
+        }
+    }
+
+    /**
+     * Reads the items of a changeset on demand.
+     */
+    public interface ItemsLoader {
+        List<Item> load() throws IOException;
+    }
+
+    /**
+     * An item of a changeset. Once its changeset belongs to a change log, the path is
+     * kept as a directory of the change log {@link StringPool} plus the name of the item.
+     * Revision numbers are kept as numbers; revision numbers that are not numbers are
+     * read back as empty strings.
+     */
     @ExportedBean(defaultVisibility=999)
     public static class Item {
-        private String path;
+        private static final long NO_REVNO = Long.MIN_VALUE;
+
+        private StringPool.Directory directory;
+        private String name;
         private ChangeSet parent;
-        private String revno;
-        private String parentRevno;
+        private long revno;
+        private long parentRevno;
 
         public Item() {
-            this("", "", "");
+            this("", NO_REVNO, NO_REVNO);
         }
 
         public Item(String path, String revno, String parentRevno) {
-            this.path = path;
+            this(path, parseRevno(revno), parseRevno(parentRevno));
+        }
+
+        public Item(String path, long revno, long parentRevno) {
+            this.name = path;
             this.revno = revno;
             this.parentRevno = parentRevno;
         }
@@ -176,13 +297,30 @@ public class ChangeSet extends ChangeLogSet.Entry {
             this.parent = parent;
         }
 
+        void intern(StringPool pool) {
+            if (directory != null || name == null) {
+                return;
+            }
+            int nameStart = name.lastIndexOf('/') + 1;
+            if (nameStart > 0) {
+                directory = pool.getDirectory(name.substring(0, nameStart));
+            }
+            name = pool.intern(name.substring(nameStart));
+        }
+
         @Exported
         public String getPath() {
-            return path;
+            if (directory == null) {
+                return name;
+            }
+            StringBuilder builder = new StringBuilder();
+            directory.appendTo(builder);
+            return builder.append(name).toString();
         }
 
         @Exported
         public String getPath(String base) {
+            String path = getPath();
             if (path.startsWith(base)) {
                 return path.substring(base.length());
             }
@@ -190,33 +328,52 @@ public class ChangeSet extends ChangeLogSet.Entry {
         }
 
         public void setPath(String path) {
-            this.path = path;
+            this.directory = null;
+            this.name = path;
+            if (parent != null && parent.pool != null) {
+                intern(parent.pool);
+            }
         }
 
         @Exported
         public String getRevno() {
-            return revno;
+            return formatRevno(revno);
         }
 
         public void setRevno(String revno) {
-            this.revno = revno;
+            this.revno = parseRevno(revno);
         }
 
         @Exported
         public String getParentRevno() {
-            return parentRevno;
+            return formatRevno(parentRevno);
         }
 
         public void setParentRevno(String parentRevno) {
-            this.parentRevno = parentRevno;
+            this.parentRevno = parseRevno(parentRevno);
         }
 
         @Exported
         public EditType getEditType() {
-            if (revno.equals("0") && parentRevno.equals("-1")) {
+            if (revno == 0 && parentRevno == -1) {
                 return EditType.ADD;
             }
             return EditType.EDIT;
         }
+
+        private static long parseRevno(String revno) {
+            if (revno == null) {
+                return NO_REVNO;
+            }
+            try {
+                return Long.parseLong(revno.trim());
+            } catch (NumberFormatException e) {
+                return NO_REVNO;
+            }
+        }
+
+        private static String formatRevno(long revno) {
+            return revno == NO_REVNO ? "" : Long.toString(revno);
+        }
     }
 }
@@ -0,0 +1,76 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the {@link CommandStatistics} of the cm commands run by a tool, by command verb.
+ * Safe to use from the threads that run commands in parallel.
+ */
+public class CommandMetrics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, CommandStatistics> statistics = new TreeMap<String, CommandStatistics>();
+
+    /**
+     * Records one invocation of a command
+     * @param verb the cm command verb, such as "update" or "find"
+     * @param wallTime milliseconds from launching the command to its termination
+     * @param parseTime milliseconds spent parsing the output; 0 if it was not parsed
+     * @param outputBytes number of bytes of output
+     * @param exitCode exit code of the command
+     */
+    public synchronized void record(String verb, long wallTime, long parseTime, long outputBytes, int exitCode) {
+        getVerbStatistics(verb).record(wallTime, parseTime, outputBytes, exitCode);
+    }
+
+    /**
+     * Records the time a command waited for a free slot of the repository server
+     * @param verb the cm command verb
+     * @param queueTime milliseconds waited
+     */
+    public synchronized void recordQueueTime(String verb, long queueTime) {
+        getVerbStatistics(verb).recordQueueTime(queueTime);
+    }
+
+    private CommandStatistics getVerbStatistics(String verb) {
+        CommandStatistics verbStatistics = statistics.get(verb);
+        if (verbStatistics == null) {
+            verbStatistics = new CommandStatistics(verb);
+            statistics.put(verb, verbStatistics);
+        }
+        return verbStatistics;
+    }
+
+    /**
+     * Adds the statistics recorded by another tool, such as one that ran on an agent
+     */
+    public synchronized void add(CommandMetrics metrics) {
+        for (CommandStatistics other : metrics.getStatistics()) {
+            CommandStatistics verbStatistics = statistics.get(other.getVerb());
+            if (verbStatistics == null) {
+                statistics.put(other.getVerb(), new CommandStatistics(other));
+            } else {
+                verbStatistics.add(other);
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return statistics.isEmpty();
+    }
+
+    /**
+     * @return a copy of the statistics recorded so far, sorted by verb
+     */
+    public synchronized List<CommandStatistics> getStatistics() {
+        List<CommandStatistics> list = new ArrayList<CommandStatistics>(statistics.size());
+        for (CommandStatistics verbStatistics : statistics.values()) {
+            list.add(new CommandStatistics(verbStatistics));
+        }
+        return list;
+    }
+}
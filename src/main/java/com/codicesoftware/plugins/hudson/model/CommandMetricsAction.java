@@ -0,0 +1,82 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import hudson.model.Action;
+import java.util.List;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * An action for storing the timing and I/O figures of the cm commands run by a build
+ *
+ * @see CommandMetrics
+ */
+@ExportedBean(defaultVisibility=999)
+public class CommandMetricsAction implements Action {
+    private final List<CommandStatistics> statistics;
+
+    public CommandMetricsAction(CommandMetrics metrics) {
+        this.statistics = metrics.getStatistics();
+    }
+
+    @Exported
+    public List<CommandStatistics> getStatistics() {
+        return statistics;
+    }
+
+    @Exported
+    public int getTotalCount() {
+        int total = 0;
+        for (CommandStatistics verbStatistics : statistics) {
+            total += verbStatistics.getCount();
+        }
+        return total;
+    }
+
+    @Exported
+    public long getTotalWallTime() {
+        long total = 0;
+        for (CommandStatistics verbStatistics : statistics) {
+            total += verbStatistics.getWallTime();
+        }
+        return total;
+    }
+
+    @Exported
+    public long getTotalParseTime() {
+        long total = 0;
+        for (CommandStatistics verbStatistics : statistics) {
+            total += verbStatistics.getParseTime();
+        }
+        return total;
+    }
+
+    @Exported
+    public long getTotalOutputBytes() {
+        long total = 0;
+        for (CommandStatistics verbStatistics : statistics) {
+            total += verbStatistics.getOutputBytes();
+        }
+        return total;
+    }
+
+    @Exported
+    public long getTotalQueueTime() {
+        long total = 0;
+        for (CommandStatistics verbStatistics : statistics) {
+            total += verbStatistics.getQueueTime();
+        }
+        return total;
+    }
+
+    public String getIconFileName() {
+        return "clock.gif";
+    }
+
+    public String getDisplayName() {
+        return "Plastic SCM commands";
+    }
+
+    public String getUrlName() {
+        return "plasticCommands";
+    }
+}
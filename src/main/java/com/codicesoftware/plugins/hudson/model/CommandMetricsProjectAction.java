@@ -0,0 +1,74 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import com.codicesoftware.plugins.hudson.PlasticSCM;
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.TransientProjectActionFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the cm command figures of the latest builds of a project on the project page.
+ */
+public class CommandMetricsProjectAction implements Action {
+    private static final int MAX_BUILDS = 10;
+    /** Builds from before the figures were recorded are not loaded beyond this */
+    private static final int MAX_SCANNED_BUILDS = 50;
+
+    private final AbstractProject<?,?> project;
+
+    public CommandMetricsProjectAction(AbstractProject<?,?> project) {
+        this.project = project;
+    }
+
+    public AbstractProject<?,?> getProject() {
+        return project;
+    }
+
+    /**
+     * @return the builds with recorded figures among the latest ones, newest first
+     */
+    public List<AbstractBuild<?,?>> getBuilds() {
+        List<AbstractBuild<?,?>> builds = new ArrayList<AbstractBuild<?,?>>();
+        int scanned = 0;
+        for (AbstractBuild<?,?> build = project.getLastBuild();
+                build != null && builds.size() < MAX_BUILDS && scanned < MAX_SCANNED_BUILDS;
+                build = build.getPreviousBuild(), scanned++) {
+            if (build.getAction(CommandMetricsAction.class) != null) {
+                builds.add(build);
+            }
+        }
+        return builds;
+    }
+
+    public CommandMetricsAction getMetrics(AbstractBuild<?,?> build) {
+        return build.getAction(CommandMetricsAction.class);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Plastic SCM commands trend";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    @Extension
+    public static class Factory extends TransientProjectActionFactory {
+        @Override
+        public Collection<? extends Action> createFor(AbstractProject target) {
+            if (target.getScm() instanceof PlasticSCM) {
+                return Collections.singleton(new CommandMetricsProjectAction(target));
+            }
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import java.io.Serializable;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Timing and I/O figures of all the invocations of one cm command verb.
+ */
+@ExportedBean(defaultVisibility=999)
+public class CommandStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String verb;
+    private int count;
+    private long wallTime;
+    private long parseTime;
+    private long outputBytes;
+    private int failures;
+    private int lastExitCode;
+    private long queueTime;
+
+    public CommandStatistics(String verb) {
+        this.verb = verb;
+    }
+
+    public CommandStatistics(CommandStatistics statistics) {
+        this.verb = statistics.verb;
+        add(statistics);
+    }
+
+    void record(long wallTime, long parseTime, long outputBytes, int exitCode) {
+        this.count++;
+        this.wallTime += wallTime;
+        this.parseTime += parseTime;
+        this.outputBytes += outputBytes;
+        this.lastExitCode = exitCode;
+        if (exitCode != 0) {
+            this.failures++;
+        }
+    }
+
+    void recordQueueTime(long queueTime) {
+        this.queueTime += queueTime;
+    }
+
+    void add(CommandStatistics statistics) {
+        this.count += statistics.count;
+        this.wallTime += statistics.wallTime;
+        this.parseTime += statistics.parseTime;
+        this.outputBytes += statistics.outputBytes;
+        this.failures += statistics.failures;
+        this.lastExitCode = statistics.lastExitCode;
+        this.queueTime += statistics.queueTime;
+    }
+
+    @Exported
+    public String getVerb() {
+        return verb;
+    }
+
+    /**
+     * @return number of invocations
+     */
+    @Exported
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return milliseconds from launching the commands to their termination
+     */
+    @Exported
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * @return milliseconds spent parsing the output. When the output is streamed the
+     * parsing overlaps the wall time, so this includes waiting for the output to arrive.
+     */
+    @Exported
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    @Exported
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return number of invocations that returned a non-zero exit code
+     */
+    @Exported
+    public int getFailures() {
+        return failures;
+    }
+
+    @Exported
+    public int getLastExitCode() {
+        return lastExitCode;
+    }
+
+    /**
+     * @return milliseconds waited for the repository server to have a free slot before running
+     */
+    @Exported
+    public long getQueueTime() {
+        return queueTime;
+    }
+}
@@ -1,11 +1,14 @@
 package com.codicesoftware.plugins.hudson.model;
 
 import com.codicesoftware.plugins.hudson.PlasticTool;
+import com.codicesoftware.plugins.hudson.commands.Command;
+import com.codicesoftware.plugins.hudson.commands.ParseableCommand;
 import com.codicesoftware.plugins.hudson.commands.ServerConfigurationProvider;
 import com.codicesoftware.plugins.hudson.util.MaskedArgumentListBuilder;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.text.ParseException;
 
 public class Server implements ServerConfigurationProvider {
     private Workspaces workspaces;
@@ -15,6 +18,10 @@ public class Server implements ServerConfigurationProvider {
         this.tool = tool;
     }
 
+    public PlasticTool getTool() {
+        return tool;
+    }
+
     public Workspaces getWorkspaces() {
         if (workspaces == null) {
             workspaces = new Workspaces(this);
@@ -26,4 +33,20 @@ public class Server implements ServerConfigurationProvider {
     public Reader execute(MaskedArgumentListBuilder arguments) throws IOException, InterruptedException {
         return tool.execute(arguments.toCommandArray(), arguments.toMaskArray());
     }
+
+    /**
+     * Executes a command whose output is not needed, without keeping the output in memory.
+     */
+    public void executeDiscardingOutput(Command command) throws IOException, InterruptedException {
+        MaskedArgumentListBuilder arguments = command.getArguments();
+        tool.executeDiscardingOutput(arguments.toCommandArray(), arguments.toMaskArray());
+    }
+
+    /**
+     * Executes the command and parses its output while the process is running.
+     */
+    public <T> T execute(ParseableCommand<T> command) throws IOException, InterruptedException, ParseException {
+        MaskedArgumentListBuilder arguments = command.getArguments();
+        return tool.execute(arguments.toCommandArray(), arguments.toMaskArray(), command);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of the strings of a change log, so that the users, repositories and
+ * path names repeated across its changesets are kept only once in memory.
+ * <p>
+ * Item paths are split into a {@link Directory}, a node of a prefix tree shared
+ * by all the items of the change log, and the name of the item.
+ */
+public class StringPool {
+    private final Map<String, String> strings = new HashMap<String, String>();
+    private final Directory root = new Directory(null, "");
+
+    /**
+     * @return the pooled instance of the string, which is null for null
+     */
+    public synchronized String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        String pooled = strings.get(string);
+        if (pooled == null) {
+            strings.put(string, string);
+            pooled = string;
+        }
+        return pooled;
+    }
+
+    /**
+     * @param path directory path, including the trailing '/'
+     * @return the node of the directory in the prefix tree
+     */
+    public synchronized Directory getDirectory(String path) {
+        Directory directory = root;
+        int start = 0;
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            directory = directory.getChild(path.substring(start, slash + 1), this);
+            start = slash + 1;
+            slash = path.indexOf('/', start);
+        }
+        if (start < path.length()) {
+            directory = directory.getChild(path.substring(start), this);
+        }
+        return directory;
+    }
+
+    /**
+     * A directory of the prefix tree. Its path is its parent's path followed by its name.
+     */
+    public static final class Directory {
+        private final Directory parent;
+        private final String name;
+        private Map<String, Directory> children;
+
+        private Directory(Directory parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private Directory getChild(String childName, StringPool pool) {
+            if (children == null) {
+                children = new HashMap<String, Directory>(4);
+            }
+            Directory child = children.get(childName);
+            if (child == null) {
+                child = new Directory(this, pool.intern(childName));
+                children.put(child.name, child);
+            }
+            return child;
+        }
+
+        public String getPath() {
+            StringBuilder builder = new StringBuilder();
+            appendTo(builder);
+            return builder.toString();
+        }
+
+        void appendTo(StringBuilder builder) {
+            if (parent != null) {
+                parent.appendTo(builder);
+            }
+            builder.append(name);
+        }
+    }
+}
@@ -1,22 +1,33 @@
 package com.codicesoftware.plugins.hudson.model;
 
 import com.codicesoftware.plugins.hudson.commands.*;
-import org.apache.commons.io.IOUtils;
+import com.codicesoftware.plugins.hudson.util.BoundedExecutor;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
 import java.io.IOException;
-import java.io.Reader;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class Workspace {
+    public static final int DEFAULT_REVISIONS_CHUNK_SIZE = 100;
+    private static final int HISTORY_PAGE_SIZE = 500;
+
     private final Server server;
     private final String name;
     private final String path;
     private String selector;
+    private List<BranchHead> previousHeads;
+    private List<BranchHead> currentHeads;
+    private int maxHistoryChangesets;
+    private boolean logHistoryLimit = true;
+    private int mountsParallelism = 1;
 
     public Workspace (Server server, String name, String path, String selector) {
         this.server = server;
@@ -37,15 +48,11 @@ public class Workspace {
         if (selector == null) {
             // Get the selector from the server
             GetSelectorCommand command = new GetSelectorCommand(server, name);
-            Reader reader = null;
             try {
-                reader = server.execute(command.getArguments());
-                selector = command.parse(reader);
+                selector = server.execute(command);
             } catch (IOException e) {
             } catch (InterruptedException e) {
             } catch (ParseException e) {
-            } finally {
-                IOUtils.closeQuietly(reader);
             }
         }
         return selector;
@@ -55,85 +62,393 @@ public class Workspace {
         this.selector = selector;
     }
 
+    /**
+     * Makes the history of the branches with a known head in both lists be listed by
+     * changeset id, from the previous head to the current one, instead of by date
+     * @param previousHeads the heads recorded by the previous build
+     * @param currentHeads the heads of the current build
+     */
+    public void setChangesetRange(List<BranchHead> previousHeads, List<BranchHead> currentHeads) {
+        this.previousHeads = previousHeads;
+        this.currentHeads = currentHeads;
+    }
+
+    /**
+     * @param maxHistoryChangesets maximum number of changesets listed per branch, the newest ones;
+     * 0 or less for no limit
+     */
+    public void setMaxHistoryChangesets(int maxHistoryChangesets) {
+        setMaxHistoryChangesets(maxHistoryChangesets, true);
+    }
+
+    /**
+     * @param maxHistoryChangesets maximum number of changesets listed per branch, the newest ones;
+     * 0 or less for no limit
+     * @param logLimit true to tell the build log when the history of a branch is cut at the limit;
+     * false when the limit is not a user setting
+     */
+    public void setMaxHistoryChangesets(int maxHistoryChangesets, boolean logLimit) {
+        this.maxHistoryChangesets = maxHistoryChangesets;
+        this.logHistoryLimit = logLimit;
+    }
+
+    /**
+     * @param mountsParallelism maximum number of queries about the branches loaded in the
+     * workspace, one per mounted repository, running at the same time
+     */
+    public void setMountsParallelism(int mountsParallelism) {
+        this.mountsParallelism = mountsParallelism;
+    }
+
     public List<ChangeSet> getDetailedHistory(Calendar fromTimestamp, Calendar toTimestamp)
             throws IOException, InterruptedException, ParseException {
+        return getDetailedHistory(fromTimestamp, toTimestamp, DEFAULT_REVISIONS_CHUNK_SIZE, 1);
+    }
+
+    /**
+     * Gets the changesets between the timestamps, along with their revisions
+     * @param revisionsChunkSize maximum number of changesets whose revisions are fetched
+     * in a single query; 0 or less queries the revisions of each changeset separately
+     * @param revisionsParallelism maximum number of revisions queries running at the same time
+     */
+    public List<ChangeSet> getDetailedHistory(Calendar fromTimestamp, Calendar toTimestamp,
+            int revisionsChunkSize, int revisionsParallelism)
+            throws IOException, InterruptedException, ParseException {
         List<ChangeSet> list = getChangesets(fromTimestamp, toTimestamp);
-        String workspaceDir;
 
-        Reader reader = null;
         GetWorkspaceFromPathCommand gwpCommand = new GetWorkspaceFromPathCommand(server, getPath());
-        try {
-            reader = server.execute(gwpCommand.getArguments());
-            workspaceDir = gwpCommand.parse(reader);
-        } finally {
-            IOUtils.closeQuietly(reader);
-        }
+        String workspaceDir = server.execute(gwpCommand);
 
         for(ChangeSet cs : list) {
             cs.setWorkspaceDir(workspaceDir);
+        }
 
-            GetChangesetRevisionsCommand revs = new GetChangesetRevisionsCommand(server, cs.getVersion(), cs.getRepository());
-
-            try {
-                reader = server.execute(revs.getArguments());
-                revs.parse(reader, cs);
-            } finally {
-                IOUtils.closeQuietly(reader);
+        List<Callable<Void>> tasks;
+        if (revisionsChunkSize > 0) {
+            tasks = getRevisionsInChunksTasks(list, revisionsChunkSize);
+        } else {
+            tasks = new ArrayList<Callable<Void>>(list.size());
+            for(ChangeSet cs : list) {
+                tasks.add(new GetRevisionsTask(cs));
             }
         }
+        BoundedExecutor.invokeAll(tasks, revisionsParallelism);
 
         return list;
     }
 
+    private List<Callable<Void>> getRevisionsInChunksTasks(List<ChangeSet> list, int chunkSize) {
+        Map<String, List<ChangeSet>> changesetsByRepository = new LinkedHashMap<String, List<ChangeSet>>();
+        for (ChangeSet cs : list) {
+            List<ChangeSet> changesets = changesetsByRepository.get(cs.getRepository());
+            if (changesets == null) {
+                changesets = new ArrayList<ChangeSet>();
+                changesetsByRepository.put(cs.getRepository(), changesets);
+            }
+            changesets.add(cs);
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (Map.Entry<String, List<ChangeSet>> entry : changesetsByRepository.entrySet()) {
+            List<ChangeSet> changesets = entry.getValue();
+            for (int start = 0; start < changesets.size(); start += chunkSize) {
+                List<ChangeSet> chunk = changesets.subList(start, Math.min(start + chunkSize, changesets.size()));
+                tasks.add(new GetRevisionsInChunkTask(chunk, entry.getKey()));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Fetches the revisions of a single changeset
+     */
+    private class GetRevisionsTask implements Callable<Void> {
+        private final ChangeSet cs;
+
+        GetRevisionsTask(ChangeSet cs) {
+            this.cs = cs;
+        }
+
+        public Void call() throws IOException, InterruptedException, ParseException {
+            GetChangesetRevisionsCommand revs = new GetChangesetRevisionsCommand(server, cs.getVersion(), cs.getRepository());
+            for (ChangeSet.Item item : server.execute(revs)) {
+                cs.add(item);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the revisions of several changesets of the same repository in one query
+     */
+    private class GetRevisionsInChunkTask implements Callable<Void> {
+        private final List<ChangeSet> chunk;
+        private final String repository;
+
+        GetRevisionsInChunkTask(List<ChangeSet> chunk, String repository) {
+            this.chunk = chunk;
+            this.repository = repository;
+        }
+
+        public Void call() throws IOException, InterruptedException, ParseException {
+            List<String> versions = new ArrayList<String>(chunk.size());
+            for (ChangeSet cs : chunk) {
+                versions.add(cs.getVersion());
+            }
+
+            GetRevisionsForChangesetsCommand revs = new GetRevisionsForChangesetsCommand(server, versions, repository);
+            Map<String, List<ChangeSet.Item>> itemsByChangeset = server.execute(revs);
+            for (ChangeSet cs : chunk) {
+                List<ChangeSet.Item> items = itemsByChangeset.get(cs.getVersion());
+                if (items != null) {
+                    for (ChangeSet.Item item : items) {
+                        cs.add(item);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     private List<ChangeSet> getChangesets(Calendar fromTimestamp, Calendar toTimestamp)
             throws IOException, InterruptedException, ParseException {
+        List<BranchHead> branches = getBranches(false);
+        List<GetBranchHistoryTask> tasks = new ArrayList<GetBranchHistoryTask>(branches.size());
+        for (BranchHead branch : branches) {
+            tasks.add(new GetBranchHistoryTask(branch, fromTimestamp, toTimestamp, branches.size() > 1));
+        }
+        BoundedExecutor.invokeAllReportingFailures(tasks, mountsParallelism);
+
         List<ChangeSet> list = new ArrayList<ChangeSet>();
-        Reader reader = null;
+        for (GetBranchHistoryTask task : tasks) {
+            list.addAll(task.changesets);
+        }
+        return list;
+    }
 
-        WorkspaceInfo wi;
-        GetWorkspaceInfoCommand wiCommand = new GetWorkspaceInfoCommand(server, getPath());
-        try {
-            reader = server.execute(wiCommand.getArguments());
-            wi = wiCommand.parse(reader);
-        } finally {
-            IOUtils.closeQuietly(reader);
+    /**
+     * Gets the history of one of the branches loaded in the workspace
+     */
+    private class GetBranchHistoryTask implements Callable<Void> {
+        private final BranchHead branch;
+        private final Calendar fromTimestamp;
+        private final Calendar toTimestamp;
+        private final boolean reportTime;
+        private List<ChangeSet> changesets;
+
+        GetBranchHistoryTask(BranchHead branch, Calendar fromTimestamp, Calendar toTimestamp, boolean reportTime) {
+            this.branch = branch;
+            this.fromTimestamp = fromTimestamp;
+            this.toTimestamp = toTimestamp;
+            this.reportTime = reportTime;
         }
 
-        String branch;
+        public Void call() throws IOException, InterruptedException, ParseException {
+            long start = System.currentTimeMillis();
+            BranchHead previous = findHead(previousHeads, branch);
+            BranchHead current = findHead(currentHeads, branch);
+            DetailedHistoryCommand histCommand;
+            if (previous != null && current != null
+                    && previous.getChangesetId() != BranchHead.UNKNOWN && current.getChangesetId() != BranchHead.UNKNOWN) {
+                histCommand = new DetailedHistoryCommand(server, previous.getChangesetId(), current.getChangesetId(),
+                        branch.getBranch(), branch.getRepository());
+            } else {
+                histCommand = new DetailedHistoryCommand(server, fromTimestamp, toTimestamp, branch.getBranch(), branch.getRepository());
+            }
+            changesets = getChangesets(histCommand, branch);
+            if (reportTime) {
+                server.getTool().getListener().getLogger().println(String.format("History of %s@%s: %d changesets in %d ms",
+                        branch.getBranch(), branch.getRepository(), changesets.size(), System.currentTimeMillis() - start));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs the history command, in pages of the newest changesets if their number is limited
+     */
+    private List<ChangeSet> getChangesets(DetailedHistoryCommand histCommand, BranchHead branch)
+            throws IOException, InterruptedException, ParseException {
+        if (maxHistoryChangesets <= 0) {
+            return server.execute(histCommand);
+        }
+
+        List<ChangeSet> newestFirst = new ArrayList<ChangeSet>();
+        long maxChangesetId = DetailedHistoryCommand.NO_CHANGESET;
+        while (newestFirst.size() < maxHistoryChangesets) {
+            int pageSize = Math.min(HISTORY_PAGE_SIZE, maxHistoryChangesets - newestFirst.size());
+            histCommand.setPage(maxChangesetId, pageSize);
+            List<ChangeSet> page = server.execute(histCommand);
+            newestFirst.addAll(page);
+            if (page.size() < pageSize) {
+                Collections.reverse(newestFirst);
+                return newestFirst;
+            }
+
+            long oldest = Long.MAX_VALUE;
+            for (ChangeSet cs : page) {
+                oldest = Math.min(oldest, parseChangesetId(cs.getVersion()));
+            }
+            if (oldest <= 0) {
+                break;
+            }
+            maxChangesetId = oldest - 1;
+        }
+
+        if (logHistoryLimit) {
+            server.getTool().getListener().getLogger().println(String.format(
+                    "The history of branch %s is limited to its newest %d changesets", branch.getBranch(), maxHistoryChangesets));
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    private static BranchHead findHead(List<BranchHead> heads, BranchHead branch) {
+        if (heads != null) {
+            for (BranchHead head : heads) {
+                if (head.isSameBranch(branch)) {
+                    return head;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the changeset loaded from each branch of the workspace, as listed by cm status.
+     * After an update, these are the changesets the build is made of.
+     * @return the branches, with the loaded changeset or {@link BranchHead#UNKNOWN}
+     */
+    public List<BranchHead> getLoadedHeads() throws IOException, InterruptedException, ParseException {
+        return getBranches(true);
+    }
+
+    /**
+     * Gets the head changeset of one of the branches loaded in the workspace
+     */
+    private class GetBranchHeadTask implements Callable<Void> {
+        private final BranchHead branch;
+        private BranchHead head;
+
+        GetBranchHeadTask(BranchHead branch) {
+            this.branch = branch;
+        }
+
+        public Void call() throws IOException, InterruptedException, ParseException {
+            GetBranchHeadCommand headCommand = new GetBranchHeadCommand(server, branch.getBranch(), branch.getRepository(),
+                    branch.getChangesetId(), null);
+            head = new BranchHead(branch.getRepository(), branch.getBranch(), server.execute(headCommand));
+            return null;
+        }
+    }
+
+    /**
+     * Checks if updating the workspace would change nothing: every branch it loads is at
+     * its head and there are no pending changes
+     * @return the heads of the branches loaded in the workspace if it is up to date; null otherwise
+     */
+    public List<BranchHead> getHeadsIfUpToDate()
+            throws IOException, InterruptedException, ParseException {
+        GetWorkspaceStatusCommand statusCommand = new GetWorkspaceStatusCommand(server, getPath());
+        List<ChangesetID> status = server.execute(statusCommand);
+        if (!statusCommand.isClean() || status.isEmpty()) {
+            return null;
+        }
+
+        List<BranchHead> heads = getBranches(status);
+        List<GetBranchHeadTask> tasks = new ArrayList<GetBranchHeadTask>(heads.size());
+        for (BranchHead branch : heads) {
+            if (branch.getChangesetId() == BranchHead.UNKNOWN) {
+                return null;
+            }
+            tasks.add(new GetBranchHeadTask(branch));
+        }
+        BoundedExecutor.invokeAllReportingFailures(tasks, mountsParallelism);
+
+        for (GetBranchHeadTask task : tasks) {
+            if (task.head.getChangesetId() != task.branch.getChangesetId()) {
+                return null;
+            }
+        }
+        return heads;
+    }
+
+    /**
+     * Resolves the branches loaded in the workspace
+     * @param withLoadedChangesets true to also find out the changeset loaded from each branch
+     * @return the branches, with the loaded changeset or {@link BranchHead#UNKNOWN}
+     */
+    private List<BranchHead> getBranches(boolean withLoadedChangesets)
+            throws IOException, InterruptedException, ParseException {
+        List<ChangesetID> status = null;
+        if (withLoadedChangesets) {
+            status = server.execute(new GetWorkspaceStatusCommand(server, getPath()));
+        }
+        return getBranches(status);
+    }
+
+    /**
+     * @param status the output of the status command, or null to only run it if the
+     * workspace loads several branches
+     */
+    private List<BranchHead> getBranches(List<ChangesetID> status)
+            throws IOException, InterruptedException, ParseException {
+        List<BranchHead> branches = new ArrayList<BranchHead>();
+
+        GetWorkspaceInfoCommand wiCommand = new GetWorkspaceInfoCommand(server, getPath());
+        WorkspaceInfo wi = server.execute(wiCommand);
 
         if (wi.getBranch().equals("Multiple")) {
-            List<ChangesetID> cslist;
-            GetWorkspaceStatusCommand statusCommand = new GetWorkspaceStatusCommand(server, getPath());
-            try {
-                reader = server.execute(statusCommand.getArguments());
-                cslist = statusCommand.parse(reader);
-            } finally {
-                IOUtils.closeQuietly(reader);
+            List<ChangesetID> cslist = status;
+            if (cslist == null) {
+                GetWorkspaceStatusCommand statusCommand = new GetWorkspaceStatusCommand(server, getPath());
+                cslist = server.execute(statusCommand);
             }
 
+            // One query per mounted repository
+            List<GetBranchFromChangesetTask> tasks = new ArrayList<GetBranchFromChangesetTask>(cslist.size());
             for (ChangesetID cs : cslist) {
-                branch = GetBranchFromChangeset(cs.getId(), cs.getRepoName());
-
-                DetailedHistoryCommand histCommand = new DetailedHistoryCommand(server, fromTimestamp, toTimestamp, branch, cs.getRepository());
-                try {
-                    reader = server.execute(histCommand.getArguments());
-                    list.addAll(histCommand.parse(reader));
-                } finally {
-                    IOUtils.closeQuietly(reader);
-                }
+                tasks.add(new GetBranchFromChangesetTask(cs));
+            }
+            BoundedExecutor.invokeAllReportingFailures(tasks, mountsParallelism);
+            for (GetBranchFromChangesetTask task : tasks) {
+                branches.add(new BranchHead(task.cs.getRepository(), task.branch, parseChangesetId(task.cs.getId())));
             }
         } else {
-            branch = GetBranchFromWorkspaceInfo(wi);
-            DetailedHistoryCommand histCommand = new DetailedHistoryCommand(server, fromTimestamp, toTimestamp, branch, wi.getRepoName());
-            try {
-                reader = server.execute(histCommand.getArguments());
-                list = histCommand.parse(reader);
-            } finally {
-                IOUtils.closeQuietly(reader);
+            String branch = GetBranchFromWorkspaceInfo(wi);
+            long loadedId = BranchHead.UNKNOWN;
+            if (status != null && !status.isEmpty()) {
+                loadedId = parseChangesetId(status.get(0).getId());
             }
+            branches.add(new BranchHead(wi.getRepoName(), branch, loadedId));
         }
 
-        return list;
+        return branches;
+    }
+
+    /**
+     * Resolves the branch of a changeset loaded in the workspace
+     */
+    private class GetBranchFromChangesetTask implements Callable<Void> {
+        private final ChangesetID cs;
+        private String branch;
+
+        GetBranchFromChangesetTask(ChangesetID cs) {
+            this.cs = cs;
+        }
+
+        public Void call() throws IOException, InterruptedException, ParseException {
+            branch = GetBranchFromChangeset(cs.getId(), cs.getRepoName());
+            return null;
+        }
+    }
+
+    private static long parseChangesetId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return BranchHead.UNKNOWN;
+        }
     }
 
     /*
@@ -146,9 +461,16 @@ public class Workspace {
         return list;
     }
 
+    /**
+     * Updates the workspace. All of its mounted repositories are updated by a single
+     * cm update, as the workspace is locked while it runs.
+     */
     public void getFiles(String localPath) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
         GetFilesToWorkFolderCommand command = new GetFilesToWorkFolderCommand(server, localPath);
-        server.execute(command.getArguments()).close();
+        server.executeDiscardingOutput(command);
+        server.getTool().getListener().getLogger().println(String.format("Updated workspace %s in %d ms",
+                name, System.currentTimeMillis() - start));
     }
 
     private String GetBranchFromWorkspaceInfo(WorkspaceInfo wi) throws InterruptedException, ParseException, IOException {
@@ -169,24 +491,12 @@ public class Workspace {
 
     private String GetBranchFromLabel(String label, String repositoryName) throws InterruptedException, ParseException, IOException {
         GetBranchForLabelCommand brCommand = new GetBranchForLabelCommand(server, label, repositoryName);
-        Reader reader = null;
-        try {
-            reader = server.execute(brCommand.getArguments());
-            return brCommand.parse(reader);
-        } finally {
-            IOUtils.closeQuietly(reader);
-        }
+        return server.execute(brCommand);
     }
 
     private String GetBranchFromChangeset(String id, String repositoryName) throws InterruptedException, ParseException, IOException {
         GetBranchForChangesetCommand brCommand = new GetBranchForChangesetCommand(server, id, repositoryName);
-        Reader reader = null;
-        try {
-            reader = server.execute(brCommand.getArguments());
-            return brCommand.parse(reader);
-        } finally {
-            IOUtils.closeQuietly(reader);
-        }
+        return server.execute(brCommand);
     }
 
     @Override
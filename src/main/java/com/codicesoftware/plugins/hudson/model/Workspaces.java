@@ -5,9 +5,8 @@ import com.codicesoftware.plugins.hudson.commands.ListWorkspacesCommand;
 import com.codicesoftware.plugins.hudson.commands.NewWorkspaceCommand;
 import com.codicesoftware.plugins.hudson.commands.SetSelectorCommand;
 import hudson.FilePath;
-import hudson.util.IOUtils;
 import java.io.IOException;
-import java.io.Reader;
+import java.text.ParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,13 +34,12 @@ public class Workspaces implements ListWorkspacesCommand.WorkspaceFactory {
      */
     private List<Workspace> getListFromServer() throws IOException, InterruptedException {
         ListWorkspacesCommand command = new ListWorkspacesCommand(this, server);
-
-        Reader reader = null;
         try {
-            reader = server.execute(command.getArguments());
-            return command.parse(reader);
-        } finally {
-            IOUtils.closeQuietly(reader);
+            return server.execute(command);
+        } catch (ParseException e) {
+            IOException exception = new IOException("Could not parse the workspace list");
+            exception.initCause(e);
+            throw exception;
         }
     }
 
@@ -113,7 +111,7 @@ public class Workspaces implements ListWorkspacesCommand.WorkspaceFactory {
     public Workspace newWorkspace(FilePath workspacePath, String name, String path, String selector) throws IOException, InterruptedException {
         FilePath selectorPath = workspacePath.createTextTempFile("selector", ".txt", selector);
         NewWorkspaceCommand command = new NewWorkspaceCommand(server, name, path, selectorPath);
-        server.execute(command.getArguments()).close();
+        server.executeDiscardingOutput(command);
         selectorPath.delete();
         Workspace workspace = new Workspace(server, name, path, selector);
         workspaces.put(name, workspace);
@@ -130,7 +128,7 @@ public class Workspaces implements ListWorkspacesCommand.WorkspaceFactory {
     public void setWorkspaceSelector(FilePath workspacePath, Workspace workspace) throws IOException, InterruptedException {
         FilePath selectorPath = workspacePath.createTextTempFile("selector", ".txt", workspace.getSelector());
         SetSelectorCommand command = new SetSelectorCommand(server, workspace.getName(), selectorPath);
-        server.execute(command.getArguments()).close();
+        server.executeDiscardingOutput(command);
         selectorPath.delete();
     }
 
@@ -143,7 +141,7 @@ public class Workspaces implements ListWorkspacesCommand.WorkspaceFactory {
     public void deleteWorkspace(Workspace workspace) throws IOException, InterruptedException {
         DeleteWorkspaceCommand command = new DeleteWorkspaceCommand(server, workspace.getName());
         workspaces.remove(workspace.getName());
-        server.execute(command.getArguments()).close();
+        server.executeDiscardingOutput(command);
     }
 
     public Workspace createWorkspace(String name, String path, String selector) {
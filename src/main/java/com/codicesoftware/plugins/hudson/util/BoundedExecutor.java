@@ -0,0 +1,146 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import hudson.util.DaemonThreadFactory;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs independent cm tasks with a bounded degree of parallelism.
+ * <p>
+ * The first task that fails aborts the remaining ones, and its exception is
+ * rethrown to the caller, unless the failures of all the tasks are collected and
+ * reported together. Interrupting the caller interrupts the running tasks.
+ */
+public class BoundedExecutor {
+
+    private BoundedExecutor() {
+    }
+
+    /**
+     * Runs all the tasks and waits for them to complete
+     * @param tasks the tasks to run
+     * @param parallelism maximum number of tasks running at the same time;
+     * 1 or less runs the tasks one after another in the calling thread
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ParseException
+     */
+    public static void invokeAll(List<? extends Callable<Void>> tasks, int parallelism)
+            throws IOException, InterruptedException, ParseException {
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw rethrow(e);
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()),
+                new DaemonThreadFactory());
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+            for (Callable<Void> task : tasks) {
+                completionService.submit(task);
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs all the tasks and waits for them to complete, even when some of them fail
+     * @param tasks the tasks to run
+     * @param parallelism maximum number of tasks running at the same time;
+     * 1 or less runs the tasks one after another in the calling thread
+     * @throws IOException if several tasks failed, listing all of their failures
+     * @throws InterruptedException
+     * @throws ParseException
+     */
+    public static void invokeAllReportingFailures(List<? extends Callable<Void>> tasks, int parallelism)
+            throws IOException, InterruptedException, ParseException {
+        List<Throwable> failures = new ArrayList<Throwable>();
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()),
+                    new DaemonThreadFactory());
+            try {
+                CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+                for (Callable<Void> task : tasks) {
+                    completionService.submit(task);
+                }
+                for (int i = 0; i < tasks.size(); i++) {
+                    try {
+                        completionService.take().get();
+                    } catch (ExecutionException e) {
+                        failures.add(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        if (failures.size() == 1) {
+            throw rethrow(failures.get(0));
+        }
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder();
+            message.append(failures.size()).append(" of ").append(tasks.size()).append(" cm tasks failed:");
+            for (Throwable failure : failures) {
+                message.append("\n  ").append(failure.getMessage() != null ? failure.getMessage() : failure.toString());
+            }
+            IOException exception = new IOException(message.toString());
+            exception.initCause(failures.get(0));
+            throw exception;
+        }
+    }
+
+    private static IOException rethrow(Throwable cause)
+            throws IOException, InterruptedException, ParseException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof ParseException) {
+            throw (ParseException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        IOException exception = new IOException("cm task failed: " + cause);
+        exception.initCause(cause);
+        return exception;
+    }
+}
@@ -0,0 +1,126 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the number of cm commands run at the same time against a repository server.
+ * <p>
+ * Commands that have to wait are queued fairly: by priority first, so the commands of
+ * builds go ahead of polling queries, and in arrival order within the same priority.
+ * There is one limiter per repository server in each JVM. The time each command
+ * waited is recorded by the command metrics of its build.
+ */
+public class CommandLimiter {
+    /**
+     * Priority classes, from the highest to the lowest
+     */
+    public enum Priority {
+        BUILD, POLL
+    }
+
+    private static final ConcurrentMap<String, CommandLimiter> limiters = new ConcurrentHashMap<String, CommandLimiter>();
+
+    private final String server;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+    private int limit;
+    private int running;
+    private long arrivals;
+
+    private CommandLimiter(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param server the repository server, as host:port; empty for the default server of the client
+     */
+    public static CommandLimiter forServer(String server) {
+        CommandLimiter limiter = limiters.get(server);
+        if (limiter == null) {
+            CommandLimiter created = new CommandLimiter(server);
+            limiter = limiters.putIfAbsent(server, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @param limit the maximum number of commands running at the same time; 0 or less for no limit
+     */
+    public synchronized void setLimit(int limit) {
+        if (this.limit != limit) {
+            this.limit = limit;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a command can be run. Every call must be followed by a call to {@link #release()}.
+     * @return milliseconds waited
+     */
+    public synchronized long acquire(Priority priority) throws InterruptedException {
+        if (waiters.isEmpty() && hasFreeSlot()) {
+            running++;
+            return 0;
+        }
+
+        Waiter waiter = new Waiter(priority, arrivals++);
+        waiters.add(waiter);
+        long start = System.currentTimeMillis();
+        try {
+            while (waiters.peek() != waiter || !hasFreeSlot()) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            waiters.remove(waiter);
+            notifyAll();
+            throw e;
+        }
+        waiters.poll();
+        running++;
+        // The next waiter may fit in a free slot as well
+        notifyAll();
+        return System.currentTimeMillis() - start;
+    }
+
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    private boolean hasFreeSlot() {
+        return limit <= 0 || running < limit;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final Priority priority;
+        private final long arrival;
+
+        Waiter(Priority priority, long arrival) {
+            this.priority = priority;
+            this.arrival = arrival;
+        }
+
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return arrival < other.arrival ? -1 : (arrival == other.arrival ? 0 : 1);
+        }
+    }
+}
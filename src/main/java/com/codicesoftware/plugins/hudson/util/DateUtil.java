@@ -2,24 +2,74 @@ package com.codicesoftware.plugins.hudson.util;
 
 import java.text.DateFormat;
 import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
  * Adapted from the tfs plugin.
+ * <p>
+ * Dates that are neither in the default format nor understood by Date.parse are
+ * parsed with the formats commonly used for the locale and timezone. Those formats
+ * are built once per thread, and the one that last succeeded for a locale and
+ * timezone is tried before the others when it matches the whole date.
+ * <p>
+ * The dates that need those formats are counted, and the count is logged for the
+ * first one and every {@value #SLOW_PATH_LOG_INTERVAL} after it, as they usually
+ * mean that a cm client ignores the date format it is given.
  */
 public class DateUtil {
 
     public static final String DEFAULT_SORTABLE_FORMAT = "yyyy'-'MM'-'dd'T'HH':'mm':'ss";
 
+    private static final int MAX_CACHED_FORMATS = 16;
+
+    static final int SLOW_PATH_LOG_INTERVAL = 1000;
+
+    /** Number of dates parsed with the formats of the locale */
+    private static final AtomicLong slowPathCount = new AtomicLong();
+
+    private static final Logger logger = Logger.getLogger(DateUtil.class.getName());
+
+    /** Index of the format that last succeeded, per locale and timezone */
+    private static final ConcurrentMap<String, Integer> learnedFormats = new ConcurrentHashMap<String, Integer>();
+
+    /** DateFormat is not thread-safe, so every thread builds its own formats */
+    private static final ThreadLocal<Map<String, DateFormat[]>> cachedFormats = new ThreadLocal<Map<String, DateFormat[]>>() {
+        @Override
+        protected Map<String, DateFormat[]> initialValue() {
+            return new LinkedHashMap<String, DateFormat[]>(MAX_CACHED_FORMATS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DateFormat[]> eldest) {
+                    return size() > MAX_CACHED_FORMATS;
+                }
+            };
+        }
+    };
+
     private DateUtil() {
     }
 
+    /**
+     * Parser and formatter of the dates in cm output and in the change log, in GMT.
+     */
+    public static final SortableDateFormat PLASTICSCM_DATETIME = new SortableDateFormat(new SimpleTimeZone(0, "GMT"));
+
+    /**
+     * @deprecated use {@link #PLASTICSCM_DATETIME}, which is thread-safe and faster
+     */
+    @Deprecated
     public static final ThreadLocal<SimpleDateFormat> PLASTICSCM_DATETIME_FORMATTER = new ThreadLocal<SimpleDateFormat>() {
         @Override
         protected SimpleDateFormat initialValue() {
@@ -46,15 +96,39 @@ public class DateUtil {
 
         // The old fashioned way did not work. Let's try it using a more
         // complex alternative.
-        DateFormat[] formats = createDateFormatsForLocaleAndTimeZone(locale, timezone);
-        return parseWithFormats(dateString, formats);
+        countSlowPath(dateString);
+        String key = getFormatsKey(locale, timezone);
+        DateFormat[] formats = getDateFormats(key, locale, timezone);
+
+        date = tryParseLearnedFormat(dateString, formats, key);
+
+        if (date != null)
+            return date;
+
+        return parseWithFormats(dateString, formats, key);
+    }
+
+    /**
+     * @return the number of dates that were neither in the default format nor understood
+     * by Date.parse, and were parsed with the slower formats of the locale
+     */
+    public static long getSlowPathCount() {
+        return slowPathCount.get();
+    }
+
+    private static void countSlowPath(String dateString) {
+        long count = slowPathCount.incrementAndGet();
+        if (count % SLOW_PATH_LOG_INTERVAL == 1) {
+            logger.info(String.format("Dates not in the %s format, parsed with the formats of the locale: %d so far, "
+                    + "the last one '%s'", DEFAULT_SORTABLE_FORMAT, count, dateString));
+        }
     }
 
     static Date tryParseDefaultFormat(String dateString)
     {
         try
         {
-            return PLASTICSCM_DATETIME_FORMATTER.get().parse(dateString);
+            return PLASTICSCM_DATETIME.parse(dateString);
         }
         catch (ParseException e)
         {
@@ -75,11 +149,41 @@ public class DateUtil {
         }
     }
 
+    /**
+     * Parses with the format that last succeeded, only if it consumes the whole
+     * string. A date-only format would otherwise parse the date part of a date
+     * and time, and drop the time an earlier format of the chain would read.
+     * @return the date, or null if no format was learned or it does not match
+     */
+    private static Date tryParseLearnedFormat(String dateString, DateFormat[] formats, String key) {
+        Integer learned = learnedFormats.get(key);
+        if (learned == null) {
+            return null;
+        }
+        ParsePosition position = new ParsePosition(0);
+        Date date = formats[learned].parse(dateString, position);
+        if (date == null || position.getIndex() != dateString.length()) {
+            return null;
+        }
+        return date;
+    }
+
     static Date parseWithFormats(String input, DateFormat[] formats) throws ParseException {
+        return parseWithFormats(input, formats, null);
+    }
+
+    /**
+     * @param learnedKey if not null, the key under which the index of the format that succeeds is remembered
+     */
+    private static Date parseWithFormats(String input, DateFormat[] formats, String learnedKey) throws ParseException {
         ParseException parseException = null;
         for (int i = 0; i < formats.length; i++) {
             try {
-                return formats[i].parse(input);
+                Date date = formats[i].parse(input);
+                if (learnedKey != null) {
+                    learnedFormats.put(learnedKey, i);
+                }
+                return date;
             } catch (ParseException ex) {
                 parseException = ex;
             }
@@ -90,6 +194,26 @@ public class DateUtil {
         throw parseException;
     }
 
+    private static String getFormatsKey(Locale locale, TimeZone timeZone) {
+        if (timeZone == null) {
+            return locale.toString();
+        }
+        return locale + "|" + timeZone.getID() + "|" + timeZone.getRawOffset();
+    }
+
+    /**
+     * @return the formats of the locale and timezone, built by the calling thread
+     */
+    private static DateFormat[] getDateFormats(String key, Locale locale, TimeZone timeZone) {
+        Map<String, DateFormat[]> formats = cachedFormats.get();
+        DateFormat[] array = formats.get(key);
+        if (array == null) {
+            array = createDateFormatsForLocaleAndTimeZone(locale, timeZone);
+            formats.put(key, array);
+        }
+        return array;
+    }
+
     /**
      * Build an array of DateFormats that are commonly used for this locale
      * and timezone.
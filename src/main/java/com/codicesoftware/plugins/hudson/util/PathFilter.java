@@ -0,0 +1,213 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The paths of the workspace a job checks out, for sparse checkouts.
+ * <p>
+ * Paths are relative to the root of the workspace, like "/src/server". A path
+ * covers the item with that path and everything under it. Included paths become
+ * selector rules, so nothing else of the repository mounted at the root is loaded;
+ * excluded paths are cloaked, so they are not downloaded from any repository.
+ */
+public class PathFilter {
+    public static final String CLOAKED_FILE = "cloaked.conf";
+    /** First line of the cloaked.conf files written by the plugin, which tells them from those of the repository */
+    public static final String CLOAKED_FILE_HEADER = "# Written by the Plastic SCM plugin from the excluded paths of the job\n";
+
+    private static final Pattern repositoryRegex = Pattern.compile(
+            "\\b(rep|repository)\\s+\"[^\"]*\"(\\s+mount\\s+\"[^\"]*\")?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern rootRuleRegex = Pattern.compile(
+            "\\bpath\\s+\"/\"(\\s+norecursive)?(.*?)(?=\\s+path\\s+\"|\\s*$)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern separatorRegex = Pattern.compile("[\\r\\n,]+");
+
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    public PathFilter(List<String> includes, List<String> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param includes included paths, one per line or separated by commas; empty includes everything
+     * @param excludes excluded paths, one per line or separated by commas
+     */
+    public static PathFilter parse(String includes, String excludes) {
+        return new PathFilter(parsePaths(includes), parsePaths(excludes));
+    }
+
+    private static List<String> parsePaths(String paths) {
+        List<String> list = new ArrayList<String>();
+        if (paths == null) {
+            return list;
+        }
+        for (String path : separatorRegex.split(paths)) {
+            path = normalize(path.trim());
+            if (path.length() > 1 && !list.contains(path)) {
+                list.add(path);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the path with forward slashes, a leading slash and no trailing slash
+     */
+    private static String normalize(String path) {
+        path = path.replace('\\', '/');
+        if (!path.startsWith("/")) {
+            path = "/" + path;
+        }
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    /**
+     * @param path a path relative to the root of the workspace
+     * @return true if the path is checked out
+     */
+    public boolean matches(String path) {
+        path = normalize(path);
+        return (includes.isEmpty() || isUnder(path, includes)) && !isUnder(path, excludes);
+    }
+
+    private static boolean isUnder(String path, List<String> parents) {
+        for (String parent : parents) {
+            if (path.equals(parent) || path.startsWith(parent + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the recursive root rules of the repository mounted at the root of the
+     * workspace with rules loading only the included paths. Their parent directories
+     * are loaded without their other children.
+     * @return the selector loading only the included paths; the same selector if
+     * everything is included
+     */
+    public String applyTo(String selector) {
+        if (selector == null || includes.isEmpty()) {
+            return selector;
+        }
+        StringBuilder result = new StringBuilder();
+        Matcher repository = repositoryRegex.matcher(selector);
+        int blockStart = 0;
+        boolean mounted = false;
+        while (repository.find()) {
+            appendBlock(result, selector.substring(blockStart, repository.start()), mounted);
+            blockStart = repository.start();
+            mounted = repository.group(2) != null;
+        }
+        appendBlock(result, selector.substring(blockStart), mounted);
+        return result.toString();
+    }
+
+    private void appendBlock(StringBuilder result, String block, boolean mounted) {
+        if (mounted) {
+            result.append(block);
+            return;
+        }
+        Matcher rule = rootRuleRegex.matcher(block);
+        StringBuffer rewritten = new StringBuffer();
+        while (rule.find()) {
+            String replacement = rule.group(1) != null ? rule.group() : getIncludeRules(rule.group(2));
+            rule.appendReplacement(rewritten, Matcher.quoteReplacement(replacement));
+        }
+        rule.appendTail(rewritten);
+        result.append(rewritten);
+    }
+
+    /**
+     * @param spec what the root rule loads, like br "/main"
+     */
+    private String getIncludeRules(String spec) {
+        Set<String> parents = new LinkedHashSet<String>();
+        List<String> roots = new ArrayList<String>();
+        for (String include : includes) {
+            List<String> others = new ArrayList<String>(includes);
+            others.remove(include);
+            if (isUnder(include, others)) {
+                continue;
+            }
+            roots.add(include);
+            parents.add("/");
+            for (int slash = include.indexOf('/', 1); slash > 0; slash = include.indexOf('/', slash + 1)) {
+                parents.add(include.substring(0, slash));
+            }
+        }
+
+        StringBuilder rules = new StringBuilder();
+        for (String parent : parents) {
+            if (!isUnder(parent, roots)) {
+                rules.append("path \"").append(parent).append("\" norecursive").append(spec).append("\n");
+            }
+        }
+        for (Iterator<String> it = roots.iterator(); it.hasNext();) {
+            rules.append("path \"").append(it.next()).append("\"").append(spec);
+            if (it.hasNext()) {
+                rules.append("\n");
+            }
+        }
+        return rules.toString();
+    }
+
+    /**
+     * @return the contents of the cloaked.conf file of the workspace: the header, then one excluded path per line
+     */
+    public String getCloakedRules() {
+        StringBuilder rules = new StringBuilder(CLOAKED_FILE_HEADER);
+        for (String exclude : excludes) {
+            rules.append(exclude).append("\n");
+        }
+        return rules.toString();
+    }
+
+    /**
+     * Removes the items out of the checked out paths from the changesets, and the
+     * changesets left without items
+     * @return the changesets with items in the checked out paths
+     */
+    public List<ChangeSet> filter(List<ChangeSet> changesets) {
+        List<ChangeSet> filtered = new ArrayList<ChangeSet>(changesets.size());
+        for (ChangeSet cs : changesets) {
+            List<ChangeSet.Item> items = cs.getItems();
+            if (items.isEmpty()) {
+                filtered.add(cs);
+                continue;
+            }
+            for (Iterator<ChangeSet.Item> it = items.iterator(); it.hasNext();) {
+                if (!matches(it.next().getPath(cs.getWorkspaceDir()))) {
+                    it.remove();
+                }
+            }
+            if (!items.isEmpty()) {
+                filtered.add(cs);
+            }
+        }
+        return filtered;
+    }
+}
@@ -0,0 +1,187 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+
+/**
+ * Reads the repositories and branches a selector loads, without a workspace.
+ * <p>
+ * Each path rule of the selector gives the branch, label or changeset it loads
+ * from its repository. Selectors with rules that can't be resolved that way, like
+ * branch per task or smart branch rules, are not supported.
+ * <p>
+ * Rules loading a label or a changeset, and branch rules narrowed to a label,
+ * changeset or revision, are pinned: what they load never changes.
+ */
+public class SelectorParser {
+    private static final Pattern tokenRegex = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+    public enum Kind {
+        BRANCH, LABEL, CHANGESET
+    }
+
+    private SelectorParser() {
+    }
+
+    /**
+     * @return the rules of the selector, without duplicates; null if the selector has
+     * rules that can't be resolved to a branch
+     */
+    public static List<Rule> parse(String selector) {
+        if (selector == null) {
+            return null;
+        }
+        List<String> tokens = tokenize(selector);
+        List<Rule> rules = new ArrayList<Rule>();
+        String repository = null;
+        Rule rule = null;
+        int i = 0;
+        while (i < tokens.size()) {
+            String keyword = tokens.get(i++).toLowerCase();
+            if (keyword.equals("norecursive")) {
+                continue;
+            }
+            if (i >= tokens.size()) {
+                return null;
+            }
+            String value = tokens.get(i++);
+
+            if (keyword.equals("rep") || keyword.equals("repository")) {
+                repository = value;
+            } else if (keyword.equals("path")) {
+                if (repository == null || (rule != null && !addRule(rules, rule))) {
+                    return null;
+                }
+                rule = new Rule(repository);
+            } else if (rule == null) {
+                if (!keyword.equals("mount")) {
+                    return null;
+                }
+            } else if (keyword.equals("branch") || keyword.equals("br")) {
+                rule.set(Kind.BRANCH, value);
+            } else if (keyword.equals("label") || keyword.equals("lb")) {
+                rule.pinned = true;
+                if (rule.kind != Kind.BRANCH) {
+                    rule.set(Kind.LABEL, value);
+                }
+            } else if (keyword.equals("changeset")) {
+                rule.pinned = true;
+                if (rule.kind != Kind.BRANCH) {
+                    rule.set(Kind.CHANGESET, value);
+                }
+            } else if (keyword.equals("revno")) {
+                rule.pinned = true;
+            } else if (!keyword.equals("checkout") && !keyword.equals("co") && !keyword.equals("mount")) {
+                return null;
+            }
+        }
+        if (rule == null || !addRule(rules, rule)) {
+            return null;
+        }
+        return rules;
+    }
+
+    /**
+     * @return the repository server of the first repository of the selector that names one,
+     * as host:port; empty if none does, so the default server of the client is used
+     */
+    public static String getServer(String selector) {
+        if (selector == null) {
+            return "";
+        }
+        List<String> tokens = tokenize(selector);
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            String keyword = tokens.get(i).toLowerCase();
+            if (keyword.equals("rep") || keyword.equals("repository")) {
+                String repository = tokens.get(i + 1);
+                int at = repository.indexOf('@');
+                if (at >= 0) {
+                    return repository.substring(at + 1);
+                }
+            }
+        }
+        return "";
+    }
+
+    private static List<String> tokenize(String selector) {
+        List<String> tokens = new ArrayList<String>();
+        Matcher matcher = tokenRegex.matcher(selector);
+        while (matcher.find()) {
+            tokens.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+        return tokens;
+    }
+
+    private static boolean addRule(List<Rule> rules, Rule rule) {
+        if (rule.kind == null) {
+            return false;
+        }
+        if (!rules.contains(rule)) {
+            rules.add(rule);
+        }
+        return true;
+    }
+
+    /**
+     * What a path rule of the selector loads from its repository
+     */
+    public static class Rule {
+        private final String repository;
+        private Kind kind;
+        private String name;
+        private boolean pinned;
+
+        Rule(String repository) {
+            this.repository = repository;
+        }
+
+        private void set(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the name of the branch or label, or the id of the changeset
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return true if the rule loads a label, a changeset or a revision, even on a
+         * branch, so new changesets never change what it loads
+         */
+        public boolean isPinned() {
+            return pinned;
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(13, 27).append(repository).append(kind).append(name).append(pinned)
+                    .toHashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if ((obj == null) || (getClass() != obj.getClass()))
+                return false;
+            final Rule other = (Rule) obj;
+            return new EqualsBuilder().append(repository, other.repository).append(kind, other.kind)
+                    .append(name, other.name).append(pinned, other.pinned).isEquals();
+        }
+    }
+}
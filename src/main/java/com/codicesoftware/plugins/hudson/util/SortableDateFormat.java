@@ -0,0 +1,172 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Immutable, thread-safe parser and formatter for the sortable date format,
+ * yyyy-MM-ddTHH:mm:ss, used by cm and by the change log.
+ * <p>
+ * Dates with exactly that fixed-width layout and years from 1900 to 9999 are
+ * converted by hand. Anything else, and parsing in time zones with an offset,
+ * falls back to a {@link SimpleDateFormat} owned by the calling thread, so the
+ * results are the same as before.
+ */
+public final class SortableDateFormat {
+    private static final int LENGTH = 19;
+    private static final int MIN_YEAR = 1900;
+    private static final int MAX_YEAR = 9999;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    private final TimeZone timeZone;
+    private final boolean utc;
+    private final ThreadLocal<SimpleDateFormat> fallback;
+
+    public SortableDateFormat(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.utc = timeZone.getRawOffset() == 0 && !timeZone.useDaylightTime();
+        this.fallback = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                SimpleDateFormat dateFormat = new SimpleDateFormat(DateUtil.DEFAULT_SORTABLE_FORMAT);
+                dateFormat.setTimeZone((TimeZone) SortableDateFormat.this.timeZone.clone());
+                return dateFormat;
+            }
+        };
+    }
+
+    public TimeZone getTimeZone() {
+        return (TimeZone) timeZone.clone();
+    }
+
+    public Date parse(String dateString) throws ParseException {
+        if (utc) {
+            long seconds = parseFixedWidth(dateString);
+            if (seconds != Long.MIN_VALUE) {
+                return new Date(seconds * MILLIS_PER_SECOND);
+            }
+        }
+        return fallback.get().parse(dateString);
+    }
+
+    public String format(Date date) {
+        long millis = date.getTime();
+        long local = millis + timeZone.getOffset(millis);
+        long seconds = floorDiv(local, MILLIS_PER_SECOND);
+        long days = floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) (seconds - days * SECONDS_PER_DAY);
+
+        char[] chars = formatDay(days);
+        if (chars == null) {
+            return fallback.get().format(date);
+        }
+        chars[10] = 'T';
+        writeDigits(chars, 11, secondOfDay / 3600);
+        chars[13] = ':';
+        writeDigits(chars, 14, secondOfDay / 60 % 60);
+        chars[16] = ':';
+        writeDigits(chars, 17, secondOfDay % 60);
+        return new String(chars);
+    }
+
+    /**
+     * @return seconds since the epoch, or Long.MIN_VALUE if the string is not
+     * in the exact fixed-width layout
+     */
+    private static long parseFixedWidth(String s) {
+        if (s.length() != LENGTH
+                || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = parseDigits(s, 0, 4);
+        int month = parseDigits(s, 5, 2);
+        int day = parseDigits(s, 8, 2);
+        int hour = parseDigits(s, 11, 2);
+        int minute = parseDigits(s, 14, 2);
+        int second = parseDigits(s, 17, 2);
+        if (year < MIN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        return daysFromCivil(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * @return the value of the digits, or -1 if any of the characters is not a digit
+     */
+    private static int parseDigits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the characters of the date part, or null if the year is out of the supported range
+     */
+    private static char[] formatDay(long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            return null;
+        }
+
+        char[] chars = new char[LENGTH];
+        writeDigits(chars, 0, (int) (year / 100));
+        writeDigits(chars, 2, (int) (year % 100));
+        chars[4] = '-';
+        writeDigits(chars, 5, month);
+        chars[7] = '-';
+        writeDigits(chars, 8, day);
+        return chars;
+    }
+
+    private static void writeDigits(char[] chars, int index, int value) {
+        chars[index] = (char) ('0' + value / 10);
+        chars[index + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Days since the epoch of a date of the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,112 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Output stream that keeps only a summary of the console output of a command:
+ * the number of lines per operation, and the last lines of the output.
+ * <p>
+ * The operation of a line is its first word, as in "Downloading file ...".
+ * The summary is printed to the log when the stream is closed.
+ */
+public class SummarizingOutputStream extends OutputStream {
+    private static final int MAX_OPERATIONS = 50;
+    private static final String OTHER_OPERATIONS = "(other)";
+
+    private final PrintStream log;
+    private final String[] lastLines;
+    private final Map<String, Integer> operationCounters = new TreeMap<String, Integer>();
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+    private long lineCount;
+    private boolean closed;
+
+    /**
+     * @param log the log that receives the summary
+     * @param maxLines number of lines kept from the end of the output
+     */
+    public SummarizingOutputStream(PrintStream log, int maxLines) {
+        this.log = log;
+        this.lastLines = new String[Math.max(maxLines, 0)];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        append(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            append(b[i]);
+        }
+    }
+
+    private void append(int b) {
+        if (b == '\n') {
+            endLine();
+        } else if (b != '\r') {
+            lineBuffer.write(b);
+        }
+    }
+
+    private void endLine() {
+        String line = lineBuffer.toString();
+        lineBuffer.reset();
+
+        if (lastLines.length > 0) {
+            lastLines[(int) (lineCount % lastLines.length)] = line;
+        }
+        lineCount++;
+        countOperation(line);
+    }
+
+    private void countOperation(String line) {
+        String trimmed = line.trim();
+        if (trimmed.length() == 0) {
+            return;
+        }
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+            end++;
+        }
+        String operation = trimmed.substring(0, end);
+        if (!operationCounters.containsKey(operation) && operationCounters.size() >= MAX_OPERATIONS) {
+            operation = OTHER_OPERATIONS;
+        }
+        Integer count = operationCounters.get(operation);
+        operationCounters.put(operation, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Prints the summary to the log. The log itself is not closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (lineBuffer.size() > 0) {
+            endLine();
+        }
+
+        for (Map.Entry<String, Integer> entry : operationCounters.entrySet()) {
+            log.println(String.format("  %s: %d", entry.getKey(), entry.getValue()));
+        }
+
+        long kept = Math.min(lineCount, lastLines.length);
+        if (lineCount > kept) {
+            log.println(String.format("  [... %d lines omitted ...]", lineCount - kept));
+        }
+        for (long i = lineCount - kept; i < lineCount; i++) {
+            log.println(lastLines[(int) (i % lastLines.length)]);
+        }
+        log.flush();
+    }
+}
@@ -0,0 +1,88 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader that ends right after the end tag of the root element of an XML document.
+ * <p>
+ * The --xml output of cm find is followed by a "Total: n" line, which XML parsers
+ * reject as content after the document. The rest of the underlying reader is left
+ * unread.
+ */
+public class XmlDocumentReader extends FilterReader {
+    private final char[] endTag;
+    private int matched;
+    private boolean ended;
+
+    /**
+     * @param in reader of the command output
+     * @param rootElement name of the root element of the document
+     */
+    public XmlDocumentReader(Reader in, String rootElement) {
+        super(in);
+        this.endTag = ("</" + rootElement + ">").toCharArray();
+    }
+
+    @Override
+    public int read() throws IOException {
+        char[] c = new char[1];
+        return read(c, 0, 1) == -1 ? -1 : c[0];
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (ended || length == 0) {
+            return ended ? -1 : 0;
+        }
+        int count = in.read(buffer, offset, length);
+        for (int i = 0; i < count; i++) {
+            char c = buffer[offset + i];
+            if (c == endTag[matched]) {
+                matched++;
+            } else {
+                matched = c == endTag[0] ? 1 : 0;
+            }
+            if (matched == endTag.length) {
+                ended = true;
+                return i + 1;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        char[] buffer = new char[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return !ended && in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+}
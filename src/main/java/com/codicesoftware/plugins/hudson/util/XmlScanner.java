@@ -0,0 +1,338 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal scanner for the simple XML written by the changelog writer, in UTF-8 or
+ * any other charset that encodes markup characters as single ASCII bytes.
+ * <p>
+ * It reports element tags and texts along with the byte offsets where they end, so
+ * parts of a file can be read again later on without parsing it from the start.
+ * It only understands elements, attributes, texts, the predefined and numeric entity
+ * references, comments and processing instructions; anything else is reported as a
+ * {@link FormatException}, so callers can fall back to a full XML parser.
+ */
+public class XmlScanner {
+    private final InputStream in;
+    private final String charset;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long position;
+
+    private String tagName;
+    private boolean endTag;
+    private boolean emptyTag;
+    private final Map<String, String> attributes = new HashMap<String, String>();
+
+    /**
+     * @param in buffered stream to scan
+     * @param position byte offset of the stream within its file
+     */
+    public XmlScanner(InputStream in, long position) {
+        this(in, position, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * @param in buffered stream to scan
+     * @param position byte offset of the stream within its file
+     * @param charset charset of the texts, which must be {@link #isSupported(Charset) supported}
+     */
+    public XmlScanner(InputStream in, long position, Charset charset) {
+        this.in = in;
+        this.position = position;
+        this.charset = charset.name();
+    }
+
+    /**
+     * @return true if the charset encodes the markup characters as the same single bytes as ASCII,
+     * so the scanner can find the tags by looking at bytes
+     */
+    public static boolean isSupported(Charset charset) {
+        String markup = "<>/=\"'&;!?- \t\r\n";
+        try {
+            return new String(markup.getBytes(charset.name()), "ISO-8859-1").equals(markup);
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the byte offset right after what has been scanned so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves to the next start or end tag, skipping any text before it
+     * @return false if the end of the stream was reached
+     */
+    public boolean nextTag() throws IOException {
+        while (true) {
+            int b = read();
+            if (b == -1) {
+                return false;
+            }
+            if (b == '<' && readMarkup()) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads the text up to the next tag, which becomes the current tag
+     * @return the unescaped, trimmed text
+     */
+    public String readText() throws IOException {
+        buffer.reset();
+        while (true) {
+            int b = read();
+            if (b == -1) {
+                throw new FormatException("Unexpected end of file in text");
+            }
+            if (b == '<') {
+                String text = normalizeLineEnds(decode(buffer).trim());
+                if (!readMarkup()) {
+                    throw new FormatException("Unexpected markup in text");
+                }
+                return unescape(text);
+            }
+            buffer.write(b);
+        }
+    }
+
+    /**
+     * Skips everything up to the end tag with the given name, which becomes the current tag
+     */
+    public void skipTo(String endTagName) throws IOException {
+        while (nextTag()) {
+            if (endTag && tagName.equals(endTagName)) {
+                return;
+            }
+        }
+        throw new FormatException("Missing </" + endTagName + ">");
+    }
+
+    public String getTagName() {
+        return tagName;
+    }
+
+    public boolean isStartTag(String name) {
+        return !endTag && name.equals(tagName);
+    }
+
+    public boolean isEndTag(String name) {
+        return endTag && name.equals(tagName);
+    }
+
+    /**
+     * @return true if the current tag is a start tag that is also its end tag, as in &lt;items/&gt;
+     */
+    public boolean isEmptyTag() {
+        return emptyTag;
+    }
+
+    public String getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    /**
+     * Reads the markup after a '&lt;'
+     * @return true if it was a tag, false if it was a comment or processing instruction
+     */
+    private boolean readMarkup() throws IOException {
+        int b = read();
+        if (b == '?') {
+            skipPast("?>");
+            return false;
+        }
+        if (b == '!') {
+            if (read() != '-' || read() != '-') {
+                throw new FormatException("Unsupported markup");
+            }
+            skipPast("-->");
+            return false;
+        }
+
+        endTag = (b == '/');
+        emptyTag = false;
+        attributes.clear();
+        if (endTag) {
+            b = read();
+        }
+
+        buffer.reset();
+        while (b != -1 && b != '>' && b != '/' && !isWhitespace(b)) {
+            buffer.write(b);
+            b = read();
+        }
+        tagName = decode(buffer);
+
+        while (true) {
+            while (isWhitespace(b)) {
+                b = read();
+            }
+            if (b == '>') {
+                return true;
+            }
+            if (b == '/') {
+                if (read() != '>') {
+                    throw new FormatException("Malformed tag " + tagName);
+                }
+                emptyTag = true;
+                return true;
+            }
+            if (b == -1) {
+                throw new FormatException("Unexpected end of file in tag " + tagName);
+            }
+            b = readAttribute(b);
+        }
+    }
+
+    /**
+     * Reads an attribute starting with the given byte
+     * @return the byte following the attribute
+     */
+    private int readAttribute(int b) throws IOException {
+        buffer.reset();
+        while (b != '=' && !isWhitespace(b)) {
+            if (b == -1 || b == '>') {
+                throw new FormatException("Malformed attribute in tag " + tagName);
+            }
+            buffer.write(b);
+            b = read();
+        }
+        String name = decode(buffer);
+
+        while (isWhitespace(b)) {
+            b = read();
+        }
+        if (b != '=') {
+            throw new FormatException("Malformed attribute " + name);
+        }
+        int quote = read();
+        while (isWhitespace(quote)) {
+            quote = read();
+        }
+        if (quote != '"' && quote != '\'') {
+            throw new FormatException("Malformed attribute " + name);
+        }
+
+        buffer.reset();
+        b = read();
+        while (b != quote) {
+            if (b == -1) {
+                throw new FormatException("Unexpected end of file in attribute " + name);
+            }
+            buffer.write(b);
+            b = read();
+        }
+        attributes.put(name, unescape(decode(buffer)));
+        return read();
+    }
+
+    private void skipPast(String terminator) throws IOException {
+        int matched = 0;
+        while (matched < terminator.length()) {
+            int b = read();
+            if (b == -1) {
+                throw new FormatException("Missing " + terminator);
+            }
+            if (b == terminator.charAt(matched)) {
+                matched++;
+            } else {
+                matched = (b == terminator.charAt(0)) ? 1 : 0;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            position++;
+        }
+        return b;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private String decode(ByteArrayOutputStream bytes) {
+        try {
+            return bytes.toString(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalizeLineEnds(String text) {
+        if (text.indexOf('\r') < 0) {
+            return text;
+        }
+        return text.replace("\r\n", "\n").replace('\r', '\n');
+    }
+
+    static String unescape(String text) throws FormatException {
+        int amp = text.indexOf('&');
+        if (amp < 0) {
+            return text;
+        }
+
+        StringBuilder builder = new StringBuilder(text.length());
+        int start = 0;
+        while (amp >= 0) {
+            int semicolon = text.indexOf(';', amp);
+            if (semicolon < 0) {
+                throw new FormatException("Malformed entity reference");
+            }
+            builder.append(text, start, amp);
+            String entity = text.substring(amp + 1, semicolon);
+            if (entity.equals("amp")) {
+                builder.append('&');
+            } else if (entity.equals("lt")) {
+                builder.append('<');
+            } else if (entity.equals("gt")) {
+                builder.append('>');
+            } else if (entity.equals("apos")) {
+                builder.append('\'');
+            } else if (entity.equals("quot")) {
+                builder.append('"');
+            } else if (entity.startsWith("#x")) {
+                builder.appendCodePoint(parseCodePoint(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                builder.appendCodePoint(parseCodePoint(entity.substring(1), 10));
+            } else {
+                throw new FormatException("Unsupported entity reference &" + entity + ";");
+            }
+            start = semicolon + 1;
+            amp = text.indexOf('&', start);
+        }
+        builder.append(text, start, text.length());
+        return builder.toString();
+    }
+
+    private static int parseCodePoint(String value, int radix) throws FormatException {
+        try {
+            return Integer.parseInt(value, radix);
+        } catch (NumberFormatException e) {
+            throw new FormatException("Malformed character reference " + value);
+        }
+    }
+
+    /**
+     * Thrown when the input uses XML that the scanner does not support.
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FormatException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.codicesoftware.plugins.hudson;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks that converting XML change logs into the binary format keeps every field
+ * of the changesets and their items.
+ */
+public class BinaryChangeLogTest extends TestCase {
+    private File xmlFile;
+    private File binaryFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        xmlFile = File.createTempFile("changelog", ".xml");
+        binaryFile = File.createTempFile("changelog", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        xmlFile.delete();
+        binaryFile.delete();
+    }
+
+    public void testRoundTripsPlainChangelog() throws Exception {
+        assertRoundTrip(new ChangeSetWriter());
+    }
+
+    public void testRoundTripsCompressedChangelog() throws Exception {
+        assertRoundTrip(new ChangeSetWriter(true));
+    }
+
+    public void testRoundTripsEmptyChangelog() throws Exception {
+        new ChangeSetWriter().write(new ArrayList<ChangeSet>(), xmlFile);
+        BinaryChangeLog.convert(xmlFile, binaryFile);
+
+        BinaryChangeLog changelog = BinaryChangeLog.open(binaryFile);
+        assertEquals(0, changelog.getChangesetCount());
+        assertEquals(0, changelog.getItemCount());
+        assertTrue(changelog.getChangeSets().isEmpty());
+    }
+
+    public void testReadsBinaryChangelogThroughReader() throws Exception {
+        new ChangeSetWriter(false, true).write(createChangeSets(), binaryFile);
+
+        assertTrue(BinaryChangeLog.isBinary(binaryFile));
+        assertFalse(BinaryChangeLog.isBinary(xmlFile));
+        List<ChangeSet> changesets = new ChangeSetReader().readChangeSets(binaryFile);
+        assertEquals(3, changesets.size());
+        assertEquals("Se\u00f1or \u00fcber <caf\u00e9>", changesets.get(0).getComment());
+    }
+
+    public void testFileCanBeDeletedOnceOpened() throws Exception {
+        new ChangeSetWriter(false, true).write(createChangeSets(), binaryFile);
+
+        List<ChangeSet> changesets = BinaryChangeLog.open(binaryFile).getChangeSets();
+        // The file is not mapped, so nothing holds it open, not even on Windows
+        assertTrue(binaryFile.delete());
+        assertEquals(2, changesets.get(0).getItems().size());
+        assertEquals("src/main.c", changesets.get(0).getItems().get(1).getPath());
+    }
+
+    private void assertRoundTrip(ChangeSetWriter xmlWriter) throws Exception {
+        xmlWriter.write(createChangeSets(), xmlFile);
+        List<ChangeSet> expected = new ChangeSetReader().readChangeSets(xmlFile);
+
+        BinaryChangeLog.convert(xmlFile, binaryFile);
+        BinaryChangeLog changelog = BinaryChangeLog.open(binaryFile);
+
+        assertEquals(expected.size(), changelog.getChangesetCount());
+        assertEquals(3, changelog.getItemCount());
+        List<ChangeSet> actual = changelog.getChangeSets();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameChangeSet("changeset " + i, expected.get(i), actual.get(i));
+            assertSameChangeSet("changeset " + i, expected.get(i), changelog.getChangeSet(i));
+        }
+    }
+
+    private static void assertSameChangeSet(String message, ChangeSet expected, ChangeSet actual) {
+        assertEquals(message + " version", expected.getVersion(), actual.getVersion());
+        assertEquals(message + " repository name", expected.getRepoName(), actual.getRepoName());
+        assertEquals(message + " repository server", expected.getRepoServer(), actual.getRepoServer());
+        assertEquals(message + " date", expected.getDate(), actual.getDate());
+        assertEquals(message + " user", expected.getUser(), actual.getUser());
+        assertEquals(message + " comment", expected.getComment(), actual.getComment());
+        assertEquals(message + " workspace directory", expected.getWorkspaceDir(), actual.getWorkspaceDir());
+
+        List<ChangeSet.Item> expectedItems = expected.getItems();
+        List<ChangeSet.Item> actualItems = actual.getItems();
+        assertEquals(message + " number of items", expectedItems.size(), actualItems.size());
+        for (int i = 0; i < expectedItems.size(); i++) {
+            ChangeSet.Item expectedItem = expectedItems.get(i);
+            ChangeSet.Item actualItem = actualItems.get(i);
+            assertEquals(message + " item " + i + " path", expectedItem.getPath(), actualItem.getPath());
+            assertEquals(message + " item " + i + " revno", expectedItem.getRevno(), actualItem.getRevno());
+            assertEquals(message + " item " + i + " parent revno", expectedItem.getParentRevno(), actualItem.getParentRevno());
+            assertSame(message + " item " + i + " parent", actual, actualItem.getParent());
+        }
+    }
+
+    private static List<ChangeSet> createChangeSets() {
+        List<ChangeSet> changesets = new ArrayList<ChangeSet>();
+
+        ChangeSet changeset = new ChangeSet("42", "code", "localhost:8084", new Date(1288775692000L),
+                "dporter", "Se\u00f1or \u00fcber <caf\u00e9>");
+        changeset.add(new ChangeSet.Item("/src/caf\u00e9.c", "5", "4"));
+        changeset.add(new ChangeSet.Item("/src/main.c", "8", "7"));
+        changesets.add(changeset);
+
+        changeset = new ChangeSet("41", "code", "localhost:8084", new Date(1288689292000L),
+                "CODICE\\tester", "Two\nlines");
+        changeset.add(new ChangeSet.Item("/doc/readme.txt", "3", "-1"));
+        changesets.add(changeset);
+
+        // The same repository strings are shared through the string table
+        changesets.add(new ChangeSet("40", "code", "localhost:8084", new Date(1288602892000L), "dporter", ""));
+        return changesets;
+    }
+}
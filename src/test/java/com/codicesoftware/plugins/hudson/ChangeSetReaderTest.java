@@ -0,0 +1,103 @@
+package com.codicesoftware.plugins.hudson;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ChangeSetReaderTest extends TestCase {
+    private static final String COMMENT = "Se\u00f1or \u00fcber <caf\u00e9> & \"quotes\"";
+
+    private File changelogFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        changelogFile = File.createTempFile("changelog", ".xml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        changelogFile.delete();
+    }
+
+    public void testReadsWrittenChangelog() throws Exception {
+        new ChangeSetWriter().write(createChangeSets(), changelogFile);
+
+        assertEquals(Charset.forName("UTF-8"), ChangeSetReader.getCharset(changelogFile));
+        List<ChangeSet> changesets = new ChangeSetReader().readChangeSets(changelogFile);
+        assertEquals(1, changesets.size());
+        assertEquals(COMMENT, changesets.get(0).getComment());
+        assertEquals("src/caf\u00e9.c", changesets.get(0).getItems().get(0).getPath());
+        assertNull(changesets.get(0).getItemsLoadError());
+    }
+
+    public void testReadsCompressedChangelog() throws Exception {
+        new ChangeSetWriter(true).write(createChangeSets(), changelogFile);
+
+        assertTrue(ChangeSetReader.isCompressed(changelogFile));
+        List<ChangeSet> changesets = new ChangeSetReader().readChangeSets(changelogFile);
+        // The items are read along with the changesets, so the file can be deleted
+        assertTrue(changelogFile.delete());
+        assertEquals(COMMENT, changesets.get(0).getComment());
+        assertEquals(2, changesets.get(0).getItems().size());
+        assertEquals("src/main.c", changesets.get(0).getItems().get(1).getPath());
+    }
+
+    public void testReadsLegacyChangelogInPlatformCharset() throws Exception {
+        if (!Charset.defaultCharset().newEncoder().canEncode("\u00f1")) {
+            // Older versions could not write it either
+            return;
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(changelogFile), Charset.defaultCharset());
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<changelog>\r\n"
+                    + "\t<changeset version=\"7\">\r\n"
+                    + "\t\t<date>2010-11-03T09:14:52</date>\r\n"
+                    + "\t\t<user>dporter</user>\r\n"
+                    + "\t\t<comment>Se\u00f1or</comment>\r\n"
+                    + "\t\t<items>\r\n"
+                    + "\t\t\t<item revno=\"3\" parentRevno=\"2\">/doc/se\u00f1or.txt</item>\r\n"
+                    + "\t\t</items>\r\n"
+                    + "\t</changeset>\r\n</changelog>\r\n");
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(Charset.defaultCharset(), ChangeSetReader.getCharset(changelogFile));
+        List<ChangeSet> changesets = new ChangeSetReader().readChangeSets(changelogFile);
+        assertEquals("Se\u00f1or", changesets.get(0).getComment());
+        assertEquals("/doc/se\u00f1or.txt", changesets.get(0).getItems().get(0).getPath());
+    }
+
+    public void testReportsItemsThatCannotBeRead() throws Exception {
+        new ChangeSetWriter().write(createChangeSets(), changelogFile);
+        List<ChangeSet> changesets = new ChangeSetReader().readChangeSets(changelogFile);
+
+        // The items are read on demand, once the file has been cut short
+        RandomAccessFile file = new RandomAccessFile(changelogFile, "rw");
+        try {
+            file.setLength(file.length() / 2);
+        } finally {
+            file.close();
+        }
+
+        assertTrue(changesets.get(0).getItems().isEmpty());
+        assertNotNull(changesets.get(0).getItemsLoadError());
+    }
+
+    private static List<ChangeSet> createChangeSets() {
+        ChangeSet changeset = new ChangeSet("42", "code", "localhost:8084", new Date(1288775692000L), "dporter", COMMENT);
+        changeset.add(new ChangeSet.Item("/src/caf\u00e9.c", "5", "4"));
+        changeset.add(new ChangeSet.Item("/src/main.c", "8", "7"));
+        List<ChangeSet> changesets = new ArrayList<ChangeSet>();
+        changesets.add(changeset);
+        return changesets;
+    }
+}
@@ -0,0 +1,192 @@
+package com.codicesoftware.plugins.hudson;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Runs the session against a shell script that behaves like "cm shell", checking
+ * how results are read and what happens when the shell fails or hangs.
+ */
+public class CmShellSessionTest extends TestCase {
+    private File executable;
+    private TaskListener listener;
+    private Launcher launcher;
+    private CmShellSession session;
+
+    @Override
+    protected void setUp() throws Exception {
+        executable = File.createTempFile("fake-cm", ".sh");
+        InputStream script = getClass().getResourceAsStream("fake-cm.sh");
+        OutputStream out = new FileOutputStream(executable);
+        try {
+            IOUtils.copy(script, out);
+        } finally {
+            out.close();
+            script.close();
+        }
+        executable.setExecutable(true);
+        listener = new StreamTaskListener(new ByteArrayOutputStream());
+        launcher = new Launcher.LocalLauncher(listener);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (session != null) {
+            session.close();
+        }
+        executable.delete();
+    }
+
+    public void testRunsCommandsInOneSession() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        session = start(60000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(0, session.execute(new String[] {"echo", "first"}, null, output));
+        assertEquals("first\n", output.toString());
+
+        output.reset();
+        assertEquals(1, session.execute(new String[] {"unknown"}, null, output));
+        assertEquals("Unknown command unknown\n", output.toString());
+
+        output.reset();
+        assertEquals(0, session.execute(new String[] {"echo", "two words"}, null, output));
+        assertEquals("two words\n", output.toString());
+        assertFalse(session.isBroken());
+    }
+
+    public void testResultLineInOutputDoesNotEndTheCommand() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        session = start(60000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(3, session.execute(new String[] {"comment"}, null, output));
+        assertEquals("Fixed the parser\nCommandResult 0\n5.0.44.1\nand the writer\n", output.toString());
+
+        output.reset();
+        assertEquals(0, session.execute(new String[] {"echo", "next"}, null, output));
+        assertEquals("next\n", output.toString());
+    }
+
+    public void testFailureAfterOutputIsNotRetried() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        session = start(60000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            session.execute(new String[] {"fail"}, null, output);
+            fail("The command should have failed");
+        } catch (CmShellSession.ShellException e) {
+            fail("Output was read, the command must not be run again");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("partial output\n", output.toString());
+        assertTrue(session.isBroken());
+        assertFalse(session.isTimedOut());
+    }
+
+    public void testFailureBeforeOutputCanBeRetried() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        session = start(60000);
+        try {
+            session.execute(new String[] {"die"}, null, new ByteArrayOutputStream());
+            fail("The command should have failed");
+        } catch (CmShellSession.ShellException e) {
+            // expected
+        }
+        assertTrue(session.isBroken());
+    }
+
+    public void testHangKillsTheSession() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        session = start(500);
+        long start = System.currentTimeMillis();
+        try {
+            session.execute(new String[] {"hang"}, null, new ByteArrayOutputStream());
+            fail("The command should have timed out");
+        } catch (CmShellSession.ShellException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertTrue(session.isBroken());
+        assertTrue(session.isTimedOut());
+    }
+
+    public void testToolFallsBackToProcesses() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        PlasticTool tool = new PlasticTool(executable.getPath(), launcher, listener, null, true);
+        try {
+            assertEquals("ran as a process\n", IOUtils.toString(tool.execute(new String[] {"die"})));
+            assertTrue(tool.isUseShell());
+            assertEquals("shell again\n", IOUtils.toString(tool.execute(new String[] {"echo", "shell again"})));
+        } finally {
+            tool.close();
+        }
+    }
+
+    public void testToolRunsParallelCommandsInSeparateShells() throws Exception {
+        if (!isUnix()) {
+            return;
+        }
+        final PlasticTool tool = new PlasticTool(executable.getPath(), launcher, listener, null, true);
+        try {
+            final String[] pids = new String[2];
+            final Exception[] failures = new Exception[2];
+            Thread[] threads = new Thread[2];
+            for (int t = 0; t < threads.length; t++) {
+                final int index = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            pids[index] = IOUtils.toString(tool.execute(new String[] {"pid"}));
+                        } catch (Exception e) {
+                            failures[index] = e;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (int t = 0; t < threads.length; t++) {
+                threads[t].join(10000);
+                assertFalse("Command did not end", threads[t].isAlive());
+                assertNull(failures[t]);
+            }
+            assertFalse("Both commands ran in shell " + pids[0], pids[0].equals(pids[1]));
+
+            // Later commands reuse the idle shells
+            String pid = IOUtils.toString(tool.execute(new String[] {"pid"}));
+            assertTrue(pid.equals(pids[0]) || pid.equals(pids[1]));
+            assertTrue(tool.isUseShell());
+        } finally {
+            tool.close();
+        }
+    }
+
+    private CmShellSession start(long timeout) throws Exception {
+        return CmShellSession.start(executable.getPath(), launcher, listener, null, timeout);
+    }
+
+    private static boolean isUnix() {
+        return File.pathSeparatorChar == ':';
+    }
+}
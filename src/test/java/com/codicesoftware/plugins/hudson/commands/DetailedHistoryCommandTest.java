@@ -0,0 +1,91 @@
+package com.codicesoftware.plugins.hudson.commands;
+
+import com.codicesoftware.plugins.hudson.model.ChangeSet;
+import com.codicesoftware.plugins.hudson.util.DateUtil;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the StAX parser of the history output gives the same changesets as the
+ * commons-digester one, for a set of cm find changeset --xml outputs.
+ */
+public class DetailedHistoryCommandTest extends TestCase {
+    private static final String[] OUTPUTS = {
+        "history-single-branch.xml",
+        "history-escaped-text.xml",
+        "history-empty.xml"
+    };
+
+    public void testStaxParserMatchesDigester() throws Exception {
+        for (String output : OUTPUTS) {
+            List<ChangeSet> expected = newCommand().parseWithDigester(open(output));
+            List<ChangeSet> actual = newCommand().parseWithStax(open(output));
+
+            assertEquals(output + ": number of changesets", expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameChangeSet(output + ": changeset " + i, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    public void testParsesAllFields() throws Exception {
+        List<ChangeSet> list = newCommand().parseWithStax(open("history-single-branch.xml"));
+
+        assertEquals(2, list.size());
+        ChangeSet cs = list.get(0);
+        assertEquals("41", cs.getVersion());
+        assertEquals("Fix the build on 64-bit agents", cs.getComment());
+        assertEquals("dporter", cs.getUser());
+        assertEquals("code", cs.getRepoName());
+        assertEquals("localhost:8084", cs.getRepoServer());
+        assertEquals(DateUtil.PLASTICSCM_DATETIME.parse("2010-11-03T09:14:52"), cs.getDate());
+        assertEquals("", list.get(1).getComment());
+    }
+
+    public void testDecodesEscapedText() throws Exception {
+        List<ChangeSet> list = newCommand().parseWithStax(open("history-escaped-text.xml"));
+
+        assertEquals(3, list.size());
+        assertEquals("CODICE\\Jos\u00e9", list.get(0).getUser());
+        assertEquals("\u0141ukasz.\u017b\u00f3\u0142kiewicz", list.get(1).getUser());
+        assertEquals("\u7530\u4e2d", list.get(2).getUser());
+        assertEquals("game & engine", list.get(0).getRepoName());
+        assertEquals("Labeled BL100 <release>", list.get(1).getComment());
+    }
+
+    public void testKeepsMultiLineComments() throws Exception {
+        List<ChangeSet> list = newCommand().parseWithStax(open("history-escaped-text.xml"));
+
+        assertEquals("Merge from /main/SCM1023:\n"
+                + "- \"quoted\" <tags> & ampersands\n"
+                + "- accents: se\u00f1or, \u00fcber\n"
+                + "CommandResult 0", list.get(0).getComment());
+        assertEquals("Trailing blank lines", list.get(2).getComment());
+    }
+
+    public void testIgnoresTotalLine() throws Exception {
+        assertEquals(2, newCommand().parseWithStax(open("history-single-branch.xml")).size());
+        assertEquals(2, newCommand().parseWithDigester(open("history-single-branch.xml")).size());
+        assertEquals(0, newCommand().parseWithStax(open("history-empty.xml")).size());
+        assertEquals(0, newCommand().parseWithDigester(open("history-empty.xml")).size());
+    }
+
+    private static DetailedHistoryCommand newCommand() {
+        return new DetailedHistoryCommand(null, null, null, "/main", "code");
+    }
+
+    private Reader open(String output) throws Exception {
+        return new InputStreamReader(getClass().getResourceAsStream(output), "UTF-8");
+    }
+
+    private static void assertSameChangeSet(String message, ChangeSet expected, ChangeSet actual) {
+        assertEquals(message + " version", expected.getVersion(), actual.getVersion());
+        assertEquals(message + " comment", expected.getComment(), actual.getComment());
+        assertEquals(message + " date", expected.getDate(), actual.getDate());
+        assertEquals(message + " user", expected.getUser(), actual.getUser());
+        assertEquals(message + " repository name", expected.getRepoName(), actual.getRepoName());
+        assertEquals(message + " repository server", expected.getRepoServer(), actual.getRepoServer());
+    }
+}
@@ -0,0 +1,207 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import com.codicesoftware.plugins.hudson.commands.ParseableCommand;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Checks how polls share the head queries of a branch. The cache is shared by the
+ * whole JVM, so every test polls a branch of its own.
+ */
+public class BranchHeadCacheTest extends TestCase {
+    private static final long TTL = 60000;
+
+    private StubServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new StubServer();
+    }
+
+    public void testConcurrentPollsJoinOneQuery() throws Exception {
+        BranchHead known = new BranchHead("code@localhost:8084", "/main/join", 5);
+        Poll owner = new Poll(known, TTL);
+        owner.start();
+        server.awaitQuery();
+
+        Poll[] others = new Poll[3];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new Poll(known, TTL);
+            others[i].start();
+        }
+        for (Poll poll : others) {
+            awaitWaiting(poll);
+        }
+        server.answer(Long.valueOf(10));
+
+        assertEquals(10, owner.getHead());
+        for (Poll poll : others) {
+            assertEquals(10, poll.getHead());
+        }
+        assertEquals(1, server.getQueryCount());
+    }
+
+    public void testQueriesAgainWhenExpired() throws Exception {
+        BranchHead known = new BranchHead("code@localhost:8084", "/main/expiry", 5);
+        server.answer(Long.valueOf(10));
+        assertEquals(10, BranchHeadCache.getHead(server, known, 200));
+        assertEquals(10, BranchHeadCache.getHead(server, known, 200));
+        assertEquals(1, server.getQueryCount());
+
+        Thread.sleep(400);
+        server.answer(Long.valueOf(11));
+        assertEquals(11, BranchHeadCache.getHead(server, known, 200));
+        assertEquals(2, server.getQueryCount());
+    }
+
+    public void testQueriesAgainWhenCachedHeadIsOlderThanKnownHead() throws Exception {
+        server.answer(Long.valueOf(10));
+        assertEquals(10, BranchHeadCache.getHead(server, new BranchHead("code@localhost:8084", "/main/older", 5), TTL));
+
+        // Another job already built changeset 12
+        server.answer(Long.valueOf(15));
+        assertEquals(15, BranchHeadCache.getHead(server, new BranchHead("code@localhost:8084", "/main/older", 12), TTL));
+        assertEquals(2, server.getQueryCount());
+    }
+
+    public void testOwnerFailureIsSharedWithWaiters() throws Exception {
+        BranchHead known = new BranchHead("code@localhost:8084", "/main/failure", 5);
+        Poll owner = new Poll(known, TTL);
+        owner.start();
+        server.awaitQuery();
+        Poll waiter = new Poll(known, TTL);
+        waiter.start();
+        awaitWaiting(waiter);
+
+        server.answer(new IOException("Server unreachable"));
+
+        assertTrue(owner.getFailure() instanceof IOException);
+        assertTrue(waiter.getFailure() instanceof IOException);
+        assertEquals(1, server.getQueryCount());
+
+        // A failed query is not cached
+        server.answer(Long.valueOf(10));
+        assertEquals(10, BranchHeadCache.getHead(server, known, TTL));
+    }
+
+    public void testOwnerInterruptIsNotSharedWithWaiters() throws Exception {
+        BranchHead known = new BranchHead("code@localhost:8084", "/main/interrupt", 5);
+        Poll owner = new Poll(known, TTL);
+        owner.start();
+        server.awaitQuery();
+        Poll waiter = new Poll(known, TTL);
+        waiter.start();
+        awaitWaiting(waiter);
+
+        server.answer(new InterruptedException());
+        server.awaitQuery();
+        server.answer(Long.valueOf(10));
+
+        assertTrue(owner.getFailure() instanceof InterruptedException);
+        assertEquals(10, waiter.getHead());
+        assertEquals(2, server.getQueryCount());
+    }
+
+    public void testZeroTtlAlwaysQueries() throws Exception {
+        BranchHead known = new BranchHead("code@localhost:8084", "/main/uncached", 5);
+        server.answer(Long.valueOf(10));
+        server.answer(Long.valueOf(10));
+        assertEquals(10, BranchHeadCache.getHead(server, known, 0));
+        assertEquals(10, BranchHeadCache.getHead(server, known, 0));
+        assertEquals(2, server.getQueryCount());
+    }
+
+    /**
+     * Waits until the poll blocks, which it only does waiting for the query of another poll
+     */
+    private static void awaitWaiting(Thread poll) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (poll.getState() != Thread.State.WAITING) {
+            assertTrue("Poll is not waiting", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Server whose head queries block until the test gives their answer: a Long, or an exception to throw.
+     */
+    private static class StubServer extends Server {
+        private final BlockingQueue<Object> answers = new LinkedBlockingQueue<Object>();
+        private final Semaphore queries = new Semaphore(0);
+        private final AtomicInteger queryCount = new AtomicInteger();
+
+        StubServer() {
+            super(null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(ParseableCommand<T> command) throws IOException, InterruptedException, ParseException {
+            queryCount.incrementAndGet();
+            queries.release();
+            Object answer = answers.take();
+            if (answer instanceof IOException) {
+                throw (IOException) answer;
+            }
+            if (answer instanceof InterruptedException) {
+                throw (InterruptedException) answer;
+            }
+            return (T) answer;
+        }
+
+        void answer(Object answer) {
+            answers.add(answer);
+        }
+
+        void awaitQuery() throws InterruptedException {
+            assertTrue("No query was run", queries.tryAcquire(10, TimeUnit.SECONDS));
+        }
+
+        int getQueryCount() {
+            return queryCount.get();
+        }
+    }
+
+    private class Poll extends Thread {
+        private final BranchHead known;
+        private final long ttlMillis;
+        private long head;
+        private Exception failure;
+
+        Poll(BranchHead known, long ttlMillis) {
+            this.known = known;
+            this.ttlMillis = ttlMillis;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                head = BranchHeadCache.getHead(server, known, ttlMillis);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        long getHead() throws Exception {
+            join(10000);
+            assertFalse("Poll did not end", isAlive());
+            if (failure != null) {
+                throw failure;
+            }
+            return head;
+        }
+
+        Exception getFailure() throws InterruptedException {
+            join(10000);
+            assertFalse("Poll did not end", isAlive());
+            return failure;
+        }
+    }
+}
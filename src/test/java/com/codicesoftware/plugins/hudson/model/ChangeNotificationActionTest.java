@@ -0,0 +1,96 @@
+package com.codicesoftware.plugins.hudson.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks the parameters of the notifications posted to the endpoint, and the jobs
+ * they select.
+ */
+public class ChangeNotificationActionTest extends TestCase {
+    private ChangeNotificationAction.Index<String> index;
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new ChangeNotificationAction.Index<String>();
+        assertTrue(index.add("main", "rep \"code@localhost:8084\" path \"/\" br \"/main\""));
+        assertTrue(index.add("task", "rep \"code\" path \"/\" br \"/main/SCM1023\""));
+        assertTrue(index.add("mounted", "rep \"code\" path \"/\" br \"/main\"\n"
+                + "rep \"lib\" mount \"/lib\" path \"/\" br \"/main\" co \"/main\"\n"
+                + "rep \"lib\" mount \"/lib\" path \"/doc\" br \"/main\""));
+        assertTrue(index.add("release", "rep \"code\" path \"/\" br \"/main\" label \"BL100\""));
+        assertTrue(index.add("baseline", "rep \"code\" path \"/\" label \"BL100\""));
+        assertFalse(index.add("smart", "rep \"code\" path \"/\" smartbranch \"/main/task\""));
+    }
+
+    public void testParsesPayload() {
+        ChangeNotificationAction.Notification notification =
+                ChangeNotificationAction.Notification.parse(" rep:code@localhost:8084 ", "br:/main/SCM1023", "cs:42");
+
+        assertEquals("code@localhost:8084", notification.getRepository());
+        assertEquals("/main/SCM1023", notification.getBranch());
+        assertEquals(42, notification.getChangesetId());
+    }
+
+    public void testChangesetIsOptional() {
+        ChangeNotificationAction.Notification notification =
+                ChangeNotificationAction.Notification.parse("code", "/main", "");
+
+        assertEquals(BranchHead.UNKNOWN, notification.getChangesetId());
+        assertEquals(BranchHead.UNKNOWN, ChangeNotificationAction.Notification.parse("code", "/main", null).getChangesetId());
+    }
+
+    public void testRejectsInvalidPayloads() {
+        assertInvalid(null, "/main", "42");
+        assertInvalid("code", " ", "42");
+        assertInvalid("code", "/main", "cs:latest");
+        assertInvalid("code", "/main", "-5");
+    }
+
+    public void testSelectsJobsLoadingTheBranch() {
+        assertEquals(list("main", "mounted"), getJobs("code", "/main"));
+        assertEquals(list("main", "mounted"), getJobs("code@localhost:8084", "/main"));
+        assertEquals(list("mounted"), getJobs("code@otherhost:8084", "/main"));
+        assertEquals(list("task"), getJobs("code", "/main/SCM1023"));
+    }
+
+    public void testSelectsMountedRepositoriesOnce() {
+        assertEquals(list("mounted"), getJobs("lib", "/main"));
+    }
+
+    public void testIgnoresPinnedRules() {
+        assertEquals(list(), getJobs("code", "BL100"));
+        assertFalse(getJobs("code", "/main").contains("release"));
+    }
+
+    public void testIgnoresUnknownBranches() {
+        assertEquals(list(), getJobs("code", "/main/SCM9999"));
+        assertEquals(list(), getJobs("other", "/main"));
+    }
+
+    private List<String> getJobs(String repository, String branch) {
+        List<String> jobs = new ArrayList<String>();
+        for (ChangeNotificationAction.Index.Entry<String> entry : index.get(repository, branch)) {
+            jobs.add(entry.project);
+        }
+        return jobs;
+    }
+
+    private static List<String> list(String... jobs) {
+        List<String> list = new ArrayList<String>();
+        for (String job : jobs) {
+            list.add(job);
+        }
+        return list;
+    }
+
+    private static void assertInvalid(String repository, String branch, String changeset) {
+        try {
+            ChangeNotificationAction.Notification.parse(repository, branch, changeset);
+            fail("Accepted " + repository + " " + branch + " " + changeset);
+        } catch (IllegalArgumentException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+}
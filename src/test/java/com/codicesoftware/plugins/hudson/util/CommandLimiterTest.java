@@ -0,0 +1,227 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * Checks the order in which waiting commands get a slot, and that no more commands
+ * than the limit run at the same time. The limiters are shared by the whole JVM,
+ * so every test uses a server of its own.
+ */
+public class CommandLimiterTest extends TestCase {
+    private static final long TIMEOUT = 10000;
+
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    public void testBuildsGoAheadOfPollsInArrivalOrder() throws Exception {
+        CommandLimiter limiter = CommandLimiter.forServer("order:8084");
+        limiter.setLimit(1);
+        limiter.acquire(CommandLimiter.Priority.BUILD);
+
+        Command[] commands = {
+            new Command(limiter, CommandLimiter.Priority.POLL, "poll 1"),
+            new Command(limiter, CommandLimiter.Priority.BUILD, "build 1"),
+            new Command(limiter, CommandLimiter.Priority.POLL, "poll 2"),
+            new Command(limiter, CommandLimiter.Priority.BUILD, "build 2"),
+            new Command(limiter, CommandLimiter.Priority.POLL, "poll 3")
+        };
+        for (int i = 0; i < commands.length; i++) {
+            commands[i].start();
+            awaitQueued(limiter, i + 1);
+        }
+        limiter.release();
+
+        for (Command command : commands) {
+            command.finish();
+        }
+        assertEquals(Arrays.asList("build 1", "build 2", "poll 1", "poll 2", "poll 3"), order);
+        assertEquals(0, limiter.getRunning());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    public void testNeverRunsMoreThanTheLimit() throws Exception {
+        final CommandLimiter limiter = CommandLimiter.forServer("limit:8084");
+        limiter.setLimit(3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; t++) {
+            final CommandLimiter.Priority priority = CommandLimiter.Priority.values()[t % 2];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            limiter.acquire(priority);
+                            try {
+                                int current = running.incrementAndGet();
+                                synchronized (maxRunning) {
+                                    maxRunning.set(Math.max(maxRunning.get(), current));
+                                }
+                                Thread.yield();
+                                running.decrementAndGet();
+                            } finally {
+                                limiter.release();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+            assertFalse("Command did not end", thread.isAlive());
+        }
+
+        if (failure[0] != null) {
+            fail(failure[0].toString());
+        }
+        assertTrue("Ran " + maxRunning.get() + " commands at once", maxRunning.get() <= 3);
+        assertEquals(0, limiter.getRunning());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    public void testInterruptedWaiterLeavesTheQueue() throws Exception {
+        CommandLimiter limiter = CommandLimiter.forServer("interrupt:8084");
+        limiter.setLimit(1);
+        limiter.acquire(CommandLimiter.Priority.BUILD);
+
+        Command interrupted = new Command(limiter, CommandLimiter.Priority.BUILD, "interrupted");
+        interrupted.start();
+        awaitQueued(limiter, 1);
+        Command poll = new Command(limiter, CommandLimiter.Priority.POLL, "poll");
+        poll.start();
+        awaitQueued(limiter, 2);
+
+        interrupted.interrupt();
+        assertTrue(interrupted.finish() instanceof InterruptedException);
+        assertEquals(1, limiter.getQueued());
+        assertEquals(1, limiter.getRunning());
+
+        limiter.release();
+        assertNull(poll.finish());
+        assertEquals(Arrays.asList("poll"), order);
+        assertEquals(0, limiter.getRunning());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    public void testRaisingTheLimitWakesWaiters() throws Exception {
+        CommandLimiter limiter = CommandLimiter.forServer("raise:8084");
+        limiter.setLimit(1);
+        limiter.acquire(CommandLimiter.Priority.BUILD);
+
+        CountDownLatch done = new CountDownLatch(1);
+        Command[] commands = {
+            new Command(limiter, CommandLimiter.Priority.BUILD, "build", done),
+            new Command(limiter, CommandLimiter.Priority.POLL, "poll", done)
+        };
+        for (int i = 0; i < commands.length; i++) {
+            commands[i].start();
+            awaitQueued(limiter, i + 1);
+        }
+
+        // No command ends, only the limit changes
+        limiter.setLimit(3);
+        awaitRunning(limiter, 3);
+        assertEquals(0, limiter.getQueued());
+
+        done.countDown();
+        for (Command command : commands) {
+            assertNull(command.finish());
+        }
+        limiter.release();
+        assertEquals(0, limiter.getRunning());
+    }
+
+    public void testRemovingTheLimitWakesWaiters() throws Exception {
+        CommandLimiter limiter = CommandLimiter.forServer("unlimited:8084");
+        limiter.setLimit(1);
+        limiter.acquire(CommandLimiter.Priority.BUILD);
+
+        Command command = new Command(limiter, CommandLimiter.Priority.POLL, "poll");
+        command.start();
+        awaitQueued(limiter, 1);
+
+        limiter.setLimit(0);
+        assertNull(command.finish());
+        limiter.release();
+        assertEquals(0, limiter.getRunning());
+    }
+
+    private static void awaitQueued(CommandLimiter limiter, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (limiter.getQueued() != queued) {
+            assertTrue("Expected " + queued + " queued commands", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitRunning(CommandLimiter limiter, int running) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (limiter.getRunning() != running) {
+            assertTrue("Expected " + running + " running commands", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Thread that runs one command: it records its name when it gets a slot, and
+     * holds the slot until the latch, if any, is counted down.
+     */
+    private class Command extends Thread {
+        private final CommandLimiter limiter;
+        private final CommandLimiter.Priority priority;
+        private final CountDownLatch done;
+        private Exception failure;
+
+        Command(CommandLimiter limiter, CommandLimiter.Priority priority, String name) {
+            this(limiter, priority, name, null);
+        }
+
+        Command(CommandLimiter limiter, CommandLimiter.Priority priority, String name, CountDownLatch done) {
+            super(name);
+            this.limiter = limiter;
+            this.priority = priority;
+            this.done = done;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                limiter.acquire(priority);
+                try {
+                    order.add(getName());
+                    if (done != null) {
+                        done.await();
+                    }
+                } finally {
+                    limiter.release();
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * @return the exception that ended the command, or null
+         */
+        Exception finish() throws InterruptedException {
+            join(TIMEOUT);
+            assertFalse("Command did not end", isAlive());
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+public class DateUtilTest extends TestCase {
+    private static final Locale LOCALE = Locale.GERMANY;
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Europe/Madrid");
+
+    private final Date date = new Date(1288775692000L);
+
+    public void testParsesDefaultFormat() throws Exception {
+        assertEquals(date, DateUtil.parseDate("2010-11-03T09:14:52", LOCALE, TIME_ZONE));
+    }
+
+    public void testParsesFormatUnderstoodByDateParse() throws Exception {
+        assertEquals(date, DateUtil.parseDate("Wed, 3 Nov 2010 09:14:52 GMT", LOCALE, TIME_ZONE));
+    }
+
+    public void testKeepsTimeAfterParsingDateOnly() throws Exception {
+        String dateOnly = format(DateFormat.getDateInstance(DateFormat.MEDIUM, LOCALE));
+        String dateTime = format(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, LOCALE));
+        assertNull(DateUtil.tryParseUnknownFormat(dateOnly));
+        assertNull(DateUtil.tryParseUnknownFormat(dateTime));
+
+        Date day = DateUtil.parseDate(dateOnly, LOCALE, TIME_ZONE);
+        assertTrue(day.getTime() <= date.getTime());
+
+        // The date-only format learned above must not parse the date part alone
+        assertEquals(date, DateUtil.parseDate(dateTime, LOCALE, TIME_ZONE));
+        assertEquals(day, DateUtil.parseDate(dateOnly, LOCALE, TIME_ZONE));
+    }
+
+    public void testCountsOnlyDatesParsedWithLocaleFormats() throws Exception {
+        long count = DateUtil.getSlowPathCount();
+        DateUtil.parseDate("2010-11-03T09:14:52", LOCALE, TIME_ZONE);
+        DateUtil.parseDate("Wed, 3 Nov 2010 09:14:52 GMT", LOCALE, TIME_ZONE);
+        assertEquals(count, DateUtil.getSlowPathCount());
+
+        DateUtil.parseDate(format(DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM, LOCALE)), LOCALE, TIME_ZONE);
+        assertEquals(count + 1, DateUtil.getSlowPathCount());
+    }
+
+    private String format(DateFormat dateFormat) {
+        dateFormat.setTimeZone(TIME_ZONE);
+        return dateFormat.format(date);
+    }
+}
@@ -0,0 +1,58 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import junit.framework.TestCase;
+
+public class PathFilterTest extends TestCase {
+    public void testCloakedRulesStartWithHeader() {
+        PathFilter filter = PathFilter.parse("", "doc/\r\n\\art\\raw, /doc");
+
+        assertEquals(PathFilter.CLOAKED_FILE_HEADER + "/doc\n/art/raw\n", filter.getCloakedRules());
+    }
+
+    public void testMatchesIncludedAndNotExcludedPaths() {
+        PathFilter filter = PathFilter.parse("/src\n/lib", "/src/test");
+
+        assertTrue(filter.matches("/src/main.c"));
+        assertTrue(filter.matches("lib"));
+        assertFalse(filter.matches("/src/test/main_test.c"));
+        assertFalse(filter.matches("/srcs/main.c"));
+        assertFalse(filter.matches("/doc/readme.txt"));
+    }
+
+    public void testRootRuleLoadsOnlyIncludedPath() {
+        PathFilter filter = PathFilter.parse("/src/server", "");
+
+        assertEquals("rep \"code\"\n"
+                + "  path \"/\" norecursive\n    br \"/main\"\n"
+                + "path \"/src\" norecursive\n    br \"/main\"\n"
+                + "path \"/src/server\"\n    br \"/main\"\n",
+                filter.applyTo("rep \"code\"\n  path \"/\"\n    br \"/main\"\n"));
+    }
+
+    public void testNestedIncludesAreCoveredByTheirParent() {
+        PathFilter filter = PathFilter.parse("/src\n/src/server\n/lib/ext", "");
+
+        assertEquals("rep \"code\" path \"/\" norecursive br \"/main\"\n"
+                + "path \"/lib\" norecursive br \"/main\"\n"
+                + "path \"/src\" br \"/main\"\n"
+                + "path \"/lib/ext\" br \"/main\"",
+                filter.applyTo("rep \"code\" path \"/\" br \"/main\""));
+    }
+
+    public void testMountedRepositoriesAreLeftAlone() {
+        PathFilter filter = PathFilter.parse("/src", "");
+
+        assertEquals("rep \"code\" path \"/\" norecursive br \"/main\"\n"
+                + "path \"/src\" br \"/main\"\n"
+                + "rep \"lib\" mount \"/lib\" path \"/\" br \"/main\"",
+                filter.applyTo("rep \"code\" path \"/\" br \"/main\"\n"
+                + "rep \"lib\" mount \"/lib\" path \"/\" br \"/main\""));
+    }
+
+    public void testNorecursiveRootRuleIsLeftAlone() {
+        PathFilter filter = PathFilter.parse("/src", "");
+        String selector = "rep \"code\" path \"/\" norecursive br \"/main\"\n path \"/src\" br \"/main\"";
+
+        assertEquals(selector, filter.applyTo(selector));
+    }
+}
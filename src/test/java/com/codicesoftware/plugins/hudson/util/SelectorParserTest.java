@@ -0,0 +1,56 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.util.List;
+import junit.framework.TestCase;
+
+public class SelectorParserTest extends TestCase {
+    public void testBranchRuleIsNotPinned() {
+        List<SelectorParser.Rule> rules = SelectorParser.parse("rep \"code@localhost:8084\"\n  path \"/\"\n    br \"/main\" co \"/main\"");
+
+        assertEquals(1, rules.size());
+        assertEquals(SelectorParser.Kind.BRANCH, rules.get(0).getKind());
+        assertEquals("/main", rules.get(0).getName());
+        assertEquals("code@localhost:8084", rules.get(0).getRepository());
+        assertFalse(rules.get(0).isPinned());
+    }
+
+    public void testLabelAndChangesetRulesArePinned() {
+        List<SelectorParser.Rule> rules = SelectorParser.parse(
+                "rep \"code\" path \"/\" label \"BL100\"\nrep \"doc\" path \"/\" changeset \"42\"");
+
+        assertEquals(2, rules.size());
+        assertEquals(SelectorParser.Kind.LABEL, rules.get(0).getKind());
+        assertTrue(rules.get(0).isPinned());
+        assertEquals(SelectorParser.Kind.CHANGESET, rules.get(1).getKind());
+        assertTrue(rules.get(1).isPinned());
+    }
+
+    public void testBranchRulesNarrowedToARevisionArePinned() {
+        String[] selectors = {
+            "rep \"code\" path \"/\" br \"/main\" label \"BL100\"",
+            "rep \"code\" path \"/\" br \"/main\" changeset \"42\"",
+            "rep \"code\" path \"/\" br \"/main\" revno \"3\"",
+            "rep \"code\" path \"/\" lb \"BL100\" br \"/main\""
+        };
+        for (String selector : selectors) {
+            List<SelectorParser.Rule> rules = SelectorParser.parse(selector);
+            assertEquals(selector, SelectorParser.Kind.BRANCH, rules.get(0).getKind());
+            assertTrue(selector, rules.get(0).isPinned());
+        }
+    }
+
+    public void testPinnedAndFloatingRulesOfABranchAreKept() {
+        List<SelectorParser.Rule> rules = SelectorParser.parse(
+                "rep \"code\" path \"/lib\" br \"/main\" label \"BL100\" path \"/\" br \"/main\"");
+
+        assertEquals(2, rules.size());
+        assertTrue(rules.get(0).isPinned());
+        assertFalse(rules.get(1).isPinned());
+    }
+
+    public void testUnsupportedRules() {
+        assertNull(SelectorParser.parse(null));
+        assertNull(SelectorParser.parse("rep \"code\" path \"/\" smartbranch \"/main/task\""));
+        assertNull(SelectorParser.parse("path \"/\" br \"/main\""));
+    }
+}
@@ -0,0 +1,107 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Times SortableDateFormat against the SimpleDateFormat it replaces, formatting and
+ * parsing the same random dates. Run it from the test class path:
+ * <pre>
+ * java com.codicesoftware.plugins.hudson.util.SortableDateFormatBenchmark [dates] [rounds]
+ * </pre>
+ * Each round times every format over all the dates; the first rounds warm up the JIT
+ * and are not reported.
+ */
+public class SortableDateFormatBenchmark {
+    private static final int DEFAULT_DATES = 100000;
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** From 2000 to 2020, the dates cm prints */
+    private static final long MIN_MILLIS = 946684800000L;
+    private static final long MAX_MILLIS = 1577836800000L;
+
+    /** Keeps the results alive, so the JIT cannot drop the timed calls */
+    private static long sink;
+
+    public static void main(String[] args) throws ParseException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DATES;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        TimeZone timeZone = TimeZone.getDefault();
+        SortableDateFormat sortable = new SortableDateFormat(timeZone);
+        SimpleDateFormat simple = new SimpleDateFormat(DateUtil.DEFAULT_SORTABLE_FORMAT);
+        simple.setTimeZone(timeZone);
+
+        Random random = new Random(1288775692L);
+        Date[] dates = new Date[count];
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = new Date(MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS)));
+            strings[i] = simple.format(dates[i]);
+        }
+
+        System.out.println(String.format("%d dates, %d rounds, time zone %s", count, rounds, timeZone.getID()));
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            long[] times = {
+                formatSimple(simple, dates),
+                formatSortable(sortable, dates),
+                parseSimple(simple, strings),
+                parseSortable(sortable, strings)
+            };
+            if (round >= WARMUP_ROUNDS) {
+                for (int i = 0; i < times.length; i++) {
+                    best[i] = Math.min(best[i], times[i]);
+                }
+            }
+        }
+
+        report("format", best[0], best[1], count);
+        report("parse", best[2], best[3], count);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long formatSimple(SimpleDateFormat format, Date[] dates) {
+        long start = System.nanoTime();
+        for (Date date : dates) {
+            sink += format.format(date).length();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long formatSortable(SortableDateFormat format, Date[] dates) {
+        long start = System.nanoTime();
+        for (Date date : dates) {
+            sink += format.format(date).length();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long parseSimple(SimpleDateFormat format, String[] strings) throws ParseException {
+        long start = System.nanoTime();
+        for (String string : strings) {
+            sink += format.parse(string).getTime();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long parseSortable(SortableDateFormat format, String[] strings) throws ParseException {
+        long start = System.nanoTime();
+        for (String string : strings) {
+            sink += format.parse(string).getTime();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String operation, long simpleNanos, long sortableNanos, int count) {
+        System.out.println(String.format("%-6s SimpleDateFormat %7.1f ns/date, SortableDateFormat %7.1f ns/date, %.1fx",
+                operation, (double) simpleNanos / count, (double) sortableNanos / count,
+                (double) simpleNanos / sortableNanos));
+    }
+}
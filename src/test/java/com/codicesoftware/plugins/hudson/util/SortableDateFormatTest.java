@@ -0,0 +1,143 @@
+package com.codicesoftware.plugins.hudson.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+/**
+ * Checks that SortableDateFormat formats and parses like the SimpleDateFormat it
+ * replaces, in time zones with and without offsets and daylight saving time.
+ */
+public class SortableDateFormatTest extends TestCase {
+    private static final TimeZone[] TIME_ZONES = {
+        new SimpleTimeZone(0, "GMT"),
+        TimeZone.getTimeZone("UTC"),
+        TimeZone.getTimeZone("Europe/Madrid"),
+        TimeZone.getTimeZone("America/New_York"),
+        TimeZone.getTimeZone("Asia/Kolkata"),
+        TimeZone.getTimeZone("Australia/Lord_Howe")
+    };
+
+    /** From 1850 to 2150, so both ends of the fixed-width range are covered */
+    private static final long MIN_MILLIS = -3786825600000L;
+    private static final long MAX_MILLIS = 5680281600000L;
+
+    private static final int DATES_PER_ZONE = 20000;
+
+    private static final String[] INPUTS = {
+        "2010-11-03T09:14:52",
+        "2000-02-29T23:59:59",
+        "1900-01-01T00:00:00",
+        "9999-12-31T23:59:59",
+        "1899-12-31T23:59:59",
+        "2011-02-29T12:00:00",
+        "2010-13-01T00:00:00",
+        "2010-11-03T24:00:00",
+        "2010-11-03T09:14:52Z",
+        "2010-11-03T09:14:52.123",
+        "2010-11-3T09:14:52",
+        "+010-11-03T09:14:52",
+        "2010-11-03 09:14:52",
+        "2010-11-03",
+        ""
+    };
+
+    public void testFormatsLikeSimpleDateFormat() {
+        Random random = new Random(1288775692L);
+        for (TimeZone timeZone : TIME_ZONES) {
+            SortableDateFormat sortable = new SortableDateFormat(timeZone);
+            SimpleDateFormat simple = createSimpleDateFormat(timeZone);
+            for (int i = 0; i < DATES_PER_ZONE; i++) {
+                Date date = new Date(MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS)));
+                assertEquals(timeZone.getID() + " " + date.getTime(), simple.format(date), sortable.format(date));
+            }
+        }
+    }
+
+    public void testParsesFormattedDatesLikeSimpleDateFormat() throws Exception {
+        Random random = new Random(1288689292L);
+        for (TimeZone timeZone : TIME_ZONES) {
+            SortableDateFormat sortable = new SortableDateFormat(timeZone);
+            SimpleDateFormat simple = createSimpleDateFormat(timeZone);
+            for (int i = 0; i < DATES_PER_ZONE; i++) {
+                String input = simple.format(new Date(MIN_MILLIS + (long) (random.nextDouble() * (MAX_MILLIS - MIN_MILLIS))));
+                assertEquals(timeZone.getID() + " " + input, simple.parse(input), sortable.parse(input));
+            }
+        }
+    }
+
+    public void testParsesUnusualInputsLikeSimpleDateFormat() {
+        for (TimeZone timeZone : TIME_ZONES) {
+            SortableDateFormat sortable = new SortableDateFormat(timeZone);
+            SimpleDateFormat simple = createSimpleDateFormat(timeZone);
+            for (String input : INPUTS) {
+                String message = timeZone.getID() + " '" + input + "'";
+                Date expected = parseOrNull(simple, input);
+                try {
+                    assertEquals(message, expected, sortable.parse(input));
+                } catch (ParseException e) {
+                    assertNull(message + " failed to parse", expected);
+                }
+            }
+        }
+    }
+
+    public void testIsThreadSafe() throws Exception {
+        final SortableDateFormat sortable = new SortableDateFormat(TimeZone.getTimeZone("Europe/Madrid"));
+        final SimpleDateFormat simple = createSimpleDateFormat(TimeZone.getTimeZone("Europe/Madrid"));
+        final String[] expected = new String[1000];
+        final Date[] parsed = new Date[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = simple.format(new Date(i * 86400000L * 37));
+            // The hour repeated when daylight saving time ends parses to its first occurrence
+            parsed[i] = simple.parse(expected[i]);
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < expected.length; i++) {
+                                assertEquals(expected[i], sortable.format(new Date(i * 86400000L * 37)));
+                                assertEquals(parsed[i], sortable.parse(expected[i]));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            fail(failure[0].toString());
+        }
+    }
+
+    private static SimpleDateFormat createSimpleDateFormat(TimeZone timeZone) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DateUtil.DEFAULT_SORTABLE_FORMAT);
+        dateFormat.setTimeZone((TimeZone) timeZone.clone());
+        return dateFormat;
+    }
+
+    private static Date parseOrNull(SimpleDateFormat dateFormat, String input) {
+        try {
+            return dateFormat.parse(input);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+#!/bin/sh
+# Stands in for the cm client in CmShellSessionTest. Run as "fake-cm.sh shell"
+# it reads commands from the standard input like "cm shell" does.
+
+run() {
+    case "$1" in
+    version)
+        echo "5.0.44.1" ;;
+    echo)
+        shift
+        echo "$@" ;;
+    comment)
+        # Output that looks like the end of a command
+        echo "Fixed the parser"
+        echo "CommandResult 0"
+        echo "5.0.44.1"
+        echo "and the writer"
+        return 3 ;;
+    fail)
+        echo "partial output"
+        exit 1 ;;
+    die)
+        if [ "$mode" = shell ]; then
+            exit 1
+        fi
+        echo "ran as a process" ;;
+    pid)
+        # Slow enough for commands run in parallel to overlap
+        sleep 1
+        echo $$ ;;
+    hang)
+        while read -r ignored; do :; done ;;
+    *)
+        echo "Unknown command $1"
+        return 1 ;;
+    esac
+}
+
+if [ "$1" = shell ]; then
+    mode=shell
+    while read -r line; do
+        if [ "$line" = exit ]; then
+            exit 0
+        fi
+        eval "run $line"
+        echo "CommandResult $?"
+    done
+else
+    mode=process
+    run "$@"
+fi